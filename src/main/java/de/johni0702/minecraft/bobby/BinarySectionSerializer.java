@@ -0,0 +1,279 @@
+package de.johni0702.minecraft.bobby;
+
+import de.johni0702.minecraft.bobby.mixin.PalettedContainerAccessor;
+import io.netty.buffer.Unpooled;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.state.StateManager;
+import net.minecraft.state.property.Property;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.collection.IndexedIterable;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.util.registry.RegistryEntry;
+import net.minecraft.util.registry.RegistryKey;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeKeys;
+import net.minecraft.world.chunk.ChunkNibbleArray;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.PalettedContainer;
+import net.minecraft.world.chunk.ReadableContainer;
+import net.minecraft.world.chunk.WorldChunk;
+import net.minecraft.world.chunk.light.LightingProvider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.LongStream;
+
+/**
+ * Alternative to the DFU/NbtOps based section format which writes the palettes and packed data arrays of all sections
+ * of a chunk straight into a single byte array.
+ *
+ * Palette entries are stored by name (block id plus properties, biome key) rather than by raw id, so the data stays
+ * valid across game sessions and mod sets just like the NBT format.
+ */
+public class BinarySectionSerializer {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final String KEY = "bobby:sections";
+
+    private static final int VERSION = 1;
+
+    private static final int HAS_BLOCKS = 1;
+    private static final int HAS_BLOCK_LIGHT = 2;
+    private static final int HAS_SKY_LIGHT = 4;
+
+    private static final int NIBBLE_ARRAY_BYTES = 2048;
+
+    public static byte[] write(WorldChunk chunk, LightingProvider lightingProvider, ChunkSerializer.Context context) {
+        ChunkSection[] chunkSections = chunk.getSectionArray();
+        int bottomY = lightingProvider.getBottomY();
+        int topY = lightingProvider.getTopY();
+
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer(4096));
+        buf.writeVarInt(VERSION);
+
+        int countIndex = buf.writerIndex();
+        buf.writeInt(0); // placeholder, patched once we know how many sections were written
+        int count = 0;
+
+        for (int y = bottomY; y < topY; y++) {
+            int i = chunk.sectionCoordToIndex(y);
+            ChunkSection chunkSection = i >= 0 && i < chunkSections.length ? chunkSections[i] : null;
+            ChunkNibbleArray blockLight = ChunkSerializer.getBlockLight(chunk, lightingProvider, i, y);
+            ChunkNibbleArray skyLight = ChunkSerializer.getSkyLight(chunk, lightingProvider, i, y);
+
+            int flags = 0;
+            if (chunkSection != null) {
+                flags |= HAS_BLOCKS;
+            }
+            if (blockLight != null && !blockLight.isUninitialized()) {
+                flags |= HAS_BLOCK_LIGHT;
+            }
+            if (skyLight != null && !skyLight.isUninitialized()) {
+                flags |= HAS_SKY_LIGHT;
+            }
+            if (flags == 0) {
+                continue;
+            }
+
+            buf.writeByte(y);
+            buf.writeByte(flags);
+
+            if (chunkSection != null) {
+                writeContainer(buf, chunkSection.getBlockStateContainer().serialize(Block.STATE_IDS, PalettedContainer.PaletteProvider.BLOCK_STATE), BinarySectionSerializer::writeBlockState);
+                writeContainer(buf, chunkSection.getBiomeContainer().serialize(context.getBiomes(), PalettedContainer.PaletteProvider.BIOME), BinarySectionSerializer::writeBiome);
+            }
+            if ((flags & HAS_BLOCK_LIGHT) != 0) {
+                buf.writeBytes(blockLight.asByteArray());
+            }
+            if ((flags & HAS_SKY_LIGHT) != 0) {
+                buf.writeBytes(skyLight.asByteArray());
+            }
+            count++;
+        }
+
+        buf.setInt(countIndex, count);
+
+        return buf.getWrittenBytes();
+    }
+
+    /**
+     * Reads sections previously written by {@link #write} into the given arrays.
+     * Light arrays are indexed by section index plus one, as in {@link ChunkSerializer#deserialize}.
+     */
+    public static void read(
+            ChunkPos chunkPos,
+            byte[] data,
+            World world,
+            ChunkSerializer.Context context,
+            ChunkSection[] chunkSections,
+            ChunkNibbleArray[] blockLight,
+            ChunkNibbleArray[] skyLight,
+            int minSectionIndex
+    ) {
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.wrappedBuffer(data));
+        int version = buf.readVarInt();
+        if (version != VERSION) {
+            LOGGER.error("Chunk {} uses unknown binary section format version {}, ignoring its sections.", chunkPos, version);
+            return;
+        }
+
+        Function<PacketByteBuf, RegistryEntry<Biome>> biomeReader = in -> context.getBiome(in.readIdentifier());
+
+        int count = buf.readInt();
+        for (int n = 0; n < count; n++) {
+            int y = buf.readByte();
+            int flags = buf.readUnsignedByte();
+            int yIndex = world.sectionCoordToIndex(y);
+
+            if (yIndex < minSectionIndex) {
+                // Not needed (see ChunkSerializer.deserialize), skip over it without decoding anything
+                if ((flags & HAS_BLOCKS) != 0) {
+                    skipContainer(buf, BinarySectionSerializer::skipBlockState);
+                    skipContainer(buf, PacketByteBuf::readIdentifier);
+                }
+                buf.skipBytes(((flags & HAS_BLOCK_LIGHT) != 0 ? NIBBLE_ARRAY_BYTES : 0)
+                        + ((flags & HAS_SKY_LIGHT) != 0 ? NIBBLE_ARRAY_BYTES : 0));
+                continue;
+            }
+
+            PalettedContainer<BlockState> blocks = null;
+            PalettedContainer<RegistryEntry<Biome>> biomes = null;
+            if ((flags & HAS_BLOCKS) != 0) {
+                blocks = readContainer(buf, chunkPos, y, Block.STATE_IDS, PalettedContainer.PaletteProvider.BLOCK_STATE, BinarySectionSerializer::readBlockState);
+                biomes = readContainer(buf, chunkPos, y, context.getBiomes(), PalettedContainer.PaletteProvider.BIOME, biomeReader);
+            }
+            ChunkNibbleArray sectionBlockLight = (flags & HAS_BLOCK_LIGHT) != 0 ? readNibbleArray(buf) : null;
+            ChunkNibbleArray sectionSkyLight = (flags & HAS_SKY_LIGHT) != 0 ? readNibbleArray(buf) : null;
+
+            // Same bounds handling as for the NBT format, see ChunkSerializer.deserialize
+            if (yIndex < -1 || yIndex > chunkSections.length) {
+                continue;
+            }
+
+            if (blocks != null && yIndex >= 0 && yIndex < chunkSections.length) {
+                ChunkSection chunkSection = new ChunkSection(y, blocks, biomes);
+                chunkSection.calculateCounts();
+                if (!chunkSection.isEmpty()) {
+                    chunkSections[yIndex] = chunkSection;
+                }
+            }
+
+            if (sectionBlockLight != null) {
+                blockLight[yIndex + 1] = sectionBlockLight;
+            }
+            if (sectionSkyLight != null) {
+                skyLight[yIndex + 1] = sectionSkyLight;
+            }
+        }
+    }
+
+    private static <T> void writeContainer(PacketByteBuf buf, ReadableContainer.Serialized<T> serialized, BiConsumer<PacketByteBuf, T> entryWriter) {
+        List<T> palette = serialized.paletteEntries();
+        buf.writeVarInt(palette.size());
+        for (T entry : palette) {
+            entryWriter.accept(buf, entry);
+        }
+        Optional<LongStream> storage = serialized.storage();
+        if (storage.isPresent()) {
+            buf.writeLongArray(storage.get().toArray());
+        } else {
+            buf.writeVarInt(0);
+        }
+    }
+
+    private static <T> PalettedContainer<T> readContainer(
+            PacketByteBuf buf,
+            ChunkPos chunkPos,
+            int y,
+            IndexedIterable<T> idList,
+            PalettedContainer.PaletteProvider paletteProvider,
+            Function<PacketByteBuf, T> entryReader
+    ) {
+        int paletteSize = buf.readVarInt();
+        List<T> palette = new ArrayList<>(paletteSize);
+        for (int i = 0; i < paletteSize; i++) {
+            palette.add(entryReader.apply(buf));
+        }
+        long[] data = buf.readLongArray();
+        Optional<LongStream> storage = data.length > 0 ? Optional.of(LongStream.of(data)) : Optional.empty();
+
+        return PalettedContainerAccessor.invokeRead(idList, paletteProvider, new ReadableContainer.Serialized<>(palette, storage))
+                .promotePartial((errorMessage) -> ChunkSerializer.logRecoverableError(chunkPos, y, errorMessage))
+                .getOrThrow(false, LOGGER::error);
+    }
+
+    private static void skipContainer(PacketByteBuf buf, Consumer<PacketByteBuf> entrySkipper) {
+        int paletteSize = buf.readVarInt();
+        for (int i = 0; i < paletteSize; i++) {
+            entrySkipper.accept(buf);
+        }
+        buf.skipBytes(buf.readVarInt() * Long.BYTES);
+    }
+
+    private static void writeBlockState(PacketByteBuf buf, BlockState state) {
+        buf.writeIdentifier(Registry.BLOCK.getId(state.getBlock()));
+        Map<Property<?>, Comparable<?>> entries = state.getEntries();
+        buf.writeVarInt(entries.size());
+        for (Map.Entry<Property<?>, Comparable<?>> entry : entries.entrySet()) {
+            Property<?> property = entry.getKey();
+            buf.writeString(property.getName());
+            buf.writeString(nameValue(property, entry.getValue()));
+        }
+    }
+
+    private static BlockState readBlockState(PacketByteBuf buf) {
+        Identifier id = buf.readIdentifier();
+        Block block = Registry.BLOCK.get(id);
+        StateManager<Block, BlockState> stateManager = block.getStateManager();
+        BlockState state = block.getDefaultState();
+        int properties = buf.readVarInt();
+        for (int i = 0; i < properties; i++) {
+            String name = buf.readString();
+            String value = buf.readString();
+            Property<?> property = stateManager.getProperty(name);
+            if (property != null) {
+                state = withValue(state, property, value);
+            }
+        }
+        return state;
+    }
+
+    private static void skipBlockState(PacketByteBuf buf) {
+        buf.readIdentifier();
+        int properties = buf.readVarInt();
+        for (int i = 0; i < properties; i++) {
+            buf.readString();
+            buf.readString();
+        }
+    }
+
+    private static void writeBiome(PacketByteBuf buf, RegistryEntry<Biome> biome) {
+        buf.writeIdentifier(biome.getKey().map(RegistryKey::getValue).orElse(BiomeKeys.PLAINS.getValue()));
+    }
+
+    private static ChunkNibbleArray readNibbleArray(PacketByteBuf buf) {
+        byte[] bytes = new byte[NIBBLE_ARRAY_BYTES];
+        buf.readBytes(bytes);
+        return new ChunkNibbleArray(bytes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Comparable<T>> String nameValue(Property<T> property, Comparable<?> value) {
+        return property.name((T) value);
+    }
+
+    private static <T extends Comparable<T>> BlockState withValue(BlockState state, Property<T> property, String value) {
+        return property.parse(value).map(it -> state.with(property, it)).orElse(state);
+    }
+}
@@ -41,7 +41,10 @@ public class Bobby{
     public void onInitializeClient() {
         Bobby.MaxRenderDistanceConfigHandler.init();
 
-        Util.getIoWorkerExecutor().submit(Bobby::cleanupOldWorlds);
+        Util.getIoWorkerExecutor().submit(() -> {
+            cleanupOldWorlds();
+            CacheSizeLimiter.run();
+        });
     }
 
 
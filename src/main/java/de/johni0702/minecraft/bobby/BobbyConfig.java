@@ -16,8 +16,21 @@ public class BobbyConfig {
     private static ConfigValue<Boolean> taintFakeChunks;
     private static ConfigValue<Integer> unloadDelaySecs;
     private static ConfigValue<Integer> deleteUnusedRegionsAfterDays;
+    private static ConfigValue<Integer> maxCacheSizePerServerMiB;
+    private static ConfigValue<Integer> maxCacheSizeMiB;
+    private static ConfigValue<Integer> decodedCacheSizeMiB;
+    private static ConfigValue<Integer> maxLoadedSizeMiB;
     private static ConfigValue<Integer> maxRenderDistance;
     private static ConfigValue<Integer> viewDistanceOverwrite;
+    private static ConfigValue<Integer> lodDistance;
+    private static ConfigValue<Boolean> circularViewDistance;
+    private static ConfigValue<Boolean> prioritizeViewDirection;
+    private static ConfigValue<Integer> targetFrameTimeMs;
+    private static ConfigValue<Integer> targetFrameTimePercentile;
+    private static ConfigValue<Boolean> binarySections;
+    private static ConfigValue<Boolean> memoryMappedReads;
+    private static ConfigValue<Boolean> compactStorage;
+    private static ConfigValue<String> compactStorageCompression;
 
     static
     {
@@ -30,11 +43,38 @@ public class BobbyConfig {
             taintFakeChunks = b.define("Reduce the light levels in fake chunks", false);
             maxRenderDistance = b.define("Max Render Distance", 64);
             viewDistanceOverwrite = b.define("Integrated Server View Distance override", 0);
+            lodDistance = b.comment("Fake chunks further away than this only load the sections around their surface, 0 to always load everything")
+                    .define("Distance beyond which fake chunks are loaded in reduced detail (chunks)", 32);
+            circularViewDistance = b.comment("Skips the corners of the view distance square, which are mostly hidden by fog anyway")
+                    .define("Load fake chunks in a circle instead of a square", false);
+            prioritizeViewDirection = b.define("Load fake chunks in view direction before ones behind you", true);
+            targetFrameTimeMs = b.comment("Time spent on fake chunks each frame adapts to stay within this, 0 to derive it from the Max Framerate option")
+                    .define("Target frame time (ms)", 0);
+            targetFrameTimePercentile = b.comment("Which percentile of recent frames (0-100) has to be within the target frame time")
+                    .define("Target frame time percentile", 90);
         });
 
         builder.Block("Unloading", b -> {
             unloadDelaySecs = b.define("Delay for unloading of chunks which are outside your view distance (seconds)", 60);
             deleteUnusedRegionsAfterDays = b.define("Delay for deleting regions from the disk cache (days)", -1);
+            maxCacheSizePerServerMiB = b.comment("Least recently used chunks are deleted once the limit is exceeded, -1 for no limit")
+                    .define("Maximum size of the disk cache of a single server (MiB)", -1);
+            maxCacheSizeMiB = b.comment("Least recently used chunks are deleted once the limit is exceeded, -1 for no limit")
+                    .define("Maximum size of the whole disk cache (MiB)", -1);
+            decodedCacheSizeMiB = b.comment("Recently unloaded chunks are kept in memory up to this size, so they load instantly when you return, 0 to disable")
+                    .define("Size of the in-memory cache of unloaded chunks (MiB)", 128);
+            maxLoadedSizeMiB = b.comment("The farthest fake chunks are reduced in detail, then unloaded, once loaded ones take up more memory than this, -1 for no limit")
+                    .define("Maximum memory used by loaded fake chunks (MiB)", -1);
+        });
+
+        builder.Block("Storage", b -> {
+            binarySections = b.comment("Only applies to newly created caches, existing ones keep the format recorded in their format.properties file")
+                    .define("Use the binary section format instead of NBT for new caches", false);
+            memoryMappedReads = b.define("Read region files via memory mapping on the loading threads", true);
+            compactStorage = b.comment("Only applies to newly created caches, see CompactRegionConverter for converting existing ones")
+                    .define("Use the compact region format instead of vanilla region files for new caches", false);
+            compactStorageCompression = b.comment("lz4, deflate or none")
+                    .define("Compression used by the compact region format", "lz4");
         });
 
         ConfigSpec = builder.Save();
@@ -66,9 +106,61 @@ public class BobbyConfig {
         return deleteUnusedRegionsAfterDays.get();
     }
 
+    public static int getMaxCacheSizePerServerMiB() {
+        return maxCacheSizePerServerMiB.get();
+    }
+
+    public static int getMaxCacheSizeMiB() {
+        return maxCacheSizeMiB.get();
+    }
+
+    public static int getDecodedCacheSizeMiB() {
+        return decodedCacheSizeMiB.get();
+    }
+
+    public static int getMaxLoadedSizeMiB() {
+        return maxLoadedSizeMiB.get();
+    }
+
     public static int getMaxRenderDistance() {return maxRenderDistance.get();}
 
     public static int getViewDistanceOverwrite() {
         return viewDistanceOverwrite.get();
     }
+
+    public static int getLodDistance() {
+        return lodDistance.get();
+    }
+
+    public static boolean isCircularViewDistance() {
+        return circularViewDistance.get();
+    }
+
+    public static int getTargetFrameTimeMs() {
+        return targetFrameTimeMs.get();
+    }
+
+    public static int getTargetFrameTimePercentile() {
+        return targetFrameTimePercentile.get();
+    }
+
+    public static boolean isPrioritizeViewDirection() {
+        return prioritizeViewDirection.get();
+    }
+
+    public static boolean isBinarySections() {
+        return binarySections.get();
+    }
+
+    public static boolean isMemoryMappedReads() {
+        return memoryMappedReads.get();
+    }
+
+    public static boolean isCompactStorage() {
+        return compactStorage.get();
+    }
+
+    public static String getCompactStorageCompression() {
+        return compactStorageCompression.get();
+    }
 }
@@ -0,0 +1,105 @@
+package de.johni0702.minecraft.bobby;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * The format in which new chunks are written to a given cache directory, as recorded in its format.properties file.
+ *
+ * Chunks are always readable regardless of the recorded format, so the file may be edited to switch a single cache
+ * to a different format.
+ */
+public class CacheFormat {
+    public static final String FILE_NAME = "format.properties";
+
+    private static final String SECTIONS_KEY = "sections";
+    private static final String SECTIONS_NBT = "nbt";
+    private static final String SECTIONS_BINARY = "binary";
+
+    private static final String STORAGE_KEY = "storage";
+    private static final String STORAGE_MCA = "mca";
+    private static final String STORAGE_COMPACT = "compact";
+
+    private static final String COMPRESSION_KEY = "compression";
+
+    private final Properties properties;
+
+    private CacheFormat(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static CacheFormat legacy() {
+        return new CacheFormat(new Properties());
+    }
+
+    public static CacheFormat of(boolean binarySections, boolean compactStorage, CompactRegionFile.Compression compression) {
+        CacheFormat format = new CacheFormat(new Properties());
+        format.properties.setProperty(SECTIONS_KEY, binarySections ? SECTIONS_BINARY : SECTIONS_NBT);
+        format.setCompactStorage(compactStorage, compression);
+        return format;
+    }
+
+    public static CacheFormat read(Path directory) throws IOException {
+        Path path = directory.resolve(FILE_NAME);
+        Properties properties = new Properties();
+        if (Files.exists(path)) {
+            try (Reader reader = Files.newBufferedReader(path)) {
+                properties.load(reader);
+            }
+        }
+        return new CacheFormat(properties);
+    }
+
+    /**
+     * Reads the format of the given directory. If it has not been recorded yet, the given defaults are recorded for new
+     * directories, while directories which already contain chunks (i.e. ones from before the format was recorded) are
+     * recorded as {@link #legacy()}, so they do not end up with a mix of formats.
+     */
+    public static CacheFormat readOrCreate(Path directory, CacheFormat defaults) throws IOException {
+        if (Files.exists(directory.resolve(FILE_NAME))) {
+            return read(directory);
+        }
+        CacheFormat format = containsRegionFiles(directory) ? legacy() : defaults;
+        format.write(directory);
+        return format;
+    }
+
+    private static boolean containsRegionFiles(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return false;
+        }
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.map(it -> it.getFileName().toString()).anyMatch(name ->
+                    FakeChunkStorage.REGION_FILE_PATTERN.matcher(name).matches()
+                            || CompactRegionFile.FILE_PATTERN.matcher(name).matches());
+        }
+    }
+
+    public void write(Path directory) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(directory.resolve(FILE_NAME))) {
+            properties.store(writer, "Bobby cache format");
+        }
+    }
+
+    public boolean isBinarySections() {
+        return SECTIONS_BINARY.equals(properties.getProperty(SECTIONS_KEY));
+    }
+
+    public boolean isCompactStorage() {
+        return STORAGE_COMPACT.equals(properties.getProperty(STORAGE_KEY));
+    }
+
+    public CompactRegionFile.Compression getCompression() {
+        return CompactRegionFile.Compression.byName(properties.getProperty(COMPRESSION_KEY), CompactRegionFile.Compression.LZ4);
+    }
+
+    public void setCompactStorage(boolean compactStorage, CompactRegionFile.Compression compression) {
+        properties.setProperty(STORAGE_KEY, compactStorage ? STORAGE_COMPACT : STORAGE_MCA);
+        properties.setProperty(COMPRESSION_KEY, compression.getName());
+    }
+}
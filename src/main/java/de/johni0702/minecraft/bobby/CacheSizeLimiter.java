@@ -0,0 +1,444 @@
+package de.johni0702.minecraft.bobby;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.util.Util;
+import net.minecraft.util.math.ChunkPos;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static de.johni0702.minecraft.bobby.FakeChunkStorage.REGION_FILE_PATTERN;
+
+/**
+ * Keeps the size of the .bobby folder within the configured limits (per server and in total) by deleting the least
+ * recently used chunks, as recorded by {@link LastAccessFile}.
+ *
+ * Caches which are currently in use are never modified (though they do count towards the limits), so this runs in the
+ * background on startup and whenever caches are closed.
+ */
+public class CacheSizeLimiter {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final int SECTOR_SIZE = 4096;
+    private static final int ENTRIES = 32 * 32;
+    private static final Pattern EXTERNAL_CHUNK_FILE_PATTERN = Pattern.compile("^c\\.(-?[0-9]+)\\.(-?[0-9]+)\\.mcc$");
+
+    // Directories of currently open caches
+    private static final Set<Path> inUse = new HashSet<>();
+    // Directories which are currently being modified by [evict]. Guarded by synchronizing on [inUse], which is only
+    // held to claim a directory, not for the eviction itself, so opening one cache never has to wait for another.
+    private static final Set<Path> evicting = new HashSet<>();
+    private static final AtomicBoolean scheduled = new AtomicBoolean();
+
+    static void markInUse(Path directory) {
+        Path path = directory.toAbsolutePath().normalize();
+        boolean interrupted = false;
+        synchronized (inUse) {
+            // A cache cannot be opened while it is being modified
+            while (evicting.contains(path)) {
+                try {
+                    inUse.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            inUse.add(path);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void markNotInUse(Path directory) {
+        synchronized (inUse) {
+            inUse.remove(directory.toAbsolutePath().normalize());
+        }
+    }
+
+    private static boolean isInUse(Path directory) {
+        synchronized (inUse) {
+            return inUse.contains(directory.toAbsolutePath().normalize());
+        }
+    }
+
+    public static void scheduleRun() {
+        if (!isEnabled()) {
+            return;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            Util.getIoWorkerExecutor().submit(() -> {
+                scheduled.set(false);
+                run();
+            });
+        }
+    }
+
+    private static boolean isEnabled() {
+        return BobbyConfig.getMaxCacheSizePerServerMiB() >= 0 || BobbyConfig.getMaxCacheSizeMiB() >= 0;
+    }
+
+    static void run() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        Path basePath = MinecraftClient.getInstance().runDirectory.toPath().resolve(".bobby");
+        if (Files.notExists(basePath)) {
+            return;
+        }
+
+        try {
+            run(basePath, toBytes(BobbyConfig.getMaxCacheSizePerServerMiB()), toBytes(BobbyConfig.getMaxCacheSizeMiB()));
+        } catch (IOException e) {
+            LOGGER.error("Failed to limit bobby cache size:", e);
+        }
+    }
+
+    private static long toBytes(int mebibytes) {
+        return mebibytes < 0 ? -1 : mebibytes * 1024L * 1024L;
+    }
+
+    private static void run(Path basePath, long maxSizePerServer, long maxSize) throws IOException {
+        List<CacheDirectory> directories;
+        try (Stream<Path> stream = Files.walk(basePath, 4)) {
+            directories = stream
+                    .filter(it -> basePath.relativize(it).getNameCount() == 4)
+                    .filter(Files::isDirectory)
+                    .map(it -> new CacheDirectory(it, basePath.relativize(it).getName(0).toString()))
+                    .collect(Collectors.toList());
+        }
+
+        long totalSize = 0;
+        Map<String, Long> serverSizes = new HashMap<>();
+        Map<String, List<Entry>> serverEntries = new HashMap<>();
+        for (CacheDirectory directory : directories) {
+            try {
+                directory.size = sizeOf(directory.path);
+                if (!isInUse(directory.path)) {
+                    directory.index();
+                }
+            } catch (IOException e) {
+                LOGGER.error("Failed to index " + directory.path + ":", e);
+                continue;
+            }
+            totalSize += directory.size;
+            serverSizes.merge(directory.server, directory.size, Long::sum);
+            serverEntries.computeIfAbsent(directory.server, k -> new ArrayList<>()).addAll(directory.entries);
+        }
+
+        long freed = 0;
+
+        if (maxSizePerServer >= 0) {
+            for (Map.Entry<String, List<Entry>> server : serverEntries.entrySet()) {
+                long excess = serverSizes.get(server.getKey()) - maxSizePerServer;
+                freed += evictLeastRecentlyUsed(server.getValue(), excess);
+            }
+        }
+
+        if (maxSize >= 0) {
+            List<Entry> allEntries = new ArrayList<>();
+            serverEntries.values().forEach(allEntries::addAll);
+            freed += evictLeastRecentlyUsed(allEntries, totalSize - freed - maxSize);
+        }
+
+        if (freed == 0) {
+            return;
+        }
+
+        LOGGER.info("Bobby cache exceeds configured size limit, evicting " + freed / 1024 + " KiB");
+
+        for (CacheDirectory directory : directories) {
+            LongSet evicted = new LongOpenHashSet();
+            for (Entry entry : directory.entries) {
+                if (entry.evicted) {
+                    evicted.add(entry.chunk);
+                }
+            }
+            if (evicted.isEmpty()) {
+                continue;
+            }
+            Path path = directory.path.toAbsolutePath().normalize();
+            synchronized (inUse) {
+                if (inUse.contains(path)) {
+                    continue; // opened since we indexed it, we will get to it next time
+                }
+                evicting.add(path);
+            }
+            try {
+                evict(directory.path, evicted);
+            } catch (IOException e) {
+                LOGGER.error("Failed to evict chunks from " + directory.path + ":", e);
+            } finally {
+                synchronized (inUse) {
+                    evicting.remove(path);
+                    inUse.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the least recently used entries as evicted until at least the given amount of bytes have been freed.
+     *
+     * @return the amount of bytes freed
+     */
+    private static long evictLeastRecentlyUsed(List<Entry> entries, long bytesToFree) {
+        if (bytesToFree <= 0) {
+            return 0;
+        }
+        entries.sort(Comparator.comparingLong(it -> it.lastAccess));
+        long freed = 0;
+        for (Entry entry : entries) {
+            if (freed >= bytesToFree) {
+                break;
+            }
+            if (!entry.evicted) {
+                entry.evicted = true;
+                freed += entry.size;
+            }
+        }
+        return freed;
+    }
+
+    private static long sizeOf(Path directory) throws IOException {
+        long size = 0;
+        try (Stream<Path> stream = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                if (Files.isRegularFile(path)) {
+                    size += Files.size(path);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static void evict(Path directory, LongSet chunks) throws IOException {
+        Long2ObjectMap<IntSet> regions = new Long2ObjectOpenHashMap<>();
+        for (long chunk : chunks) {
+            int x = ChunkPos.getPackedX(chunk);
+            int z = ChunkPos.getPackedZ(chunk);
+            regions.computeIfAbsent(ChunkPos.toLong(x >> 5, z >> 5), k -> new IntOpenHashSet()).add(index(x & 31, z & 31));
+        }
+
+        for (Long2ObjectMap.Entry<IntSet> region : regions.long2ObjectEntrySet()) {
+            int regionX = ChunkPos.getPackedX(region.getLongKey());
+            int regionZ = ChunkPos.getPackedZ(region.getLongKey());
+            IntSet indices = region.getValue();
+
+            Path vanillaFile = directory.resolve("r." + regionX + "." + regionZ + ".mca");
+            if (Files.exists(vanillaFile)) {
+                removeFromVanillaRegion(directory, vanillaFile, regionX, regionZ, indices);
+            }
+
+            Path compactFile = directory.resolve(CompactRegionFile.getFileName(regionX, regionZ));
+            CompactRegionFile compactRegion = CompactRegionFile.open(compactFile, false);
+            if (compactRegion != null) {
+                boolean empty;
+                try (compactRegion) {
+                    for (int index : indices) {
+                        compactRegion.delete(index & 31, index >> 5);
+                    }
+                    compactRegion.compact();
+                    empty = compactRegion.isEmpty();
+                }
+                if (empty) {
+                    Files.delete(compactFile);
+                }
+            }
+        }
+
+        LastAccessFile.removeChunks(directory, chunks);
+        FingerprintFile.removeChunks(directory, chunks);
+        ChunkExistenceIndex.removeChunks(directory, chunks);
+    }
+
+    /**
+     * Rewrites the given vanilla region file without the given chunks (and without any unused sectors).
+     */
+    private static void removeFromVanillaRegion(Path directory, Path file, int regionX, int regionZ, IntSet indices) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < SECTOR_SIZE * 2) {
+            Files.delete(file);
+            return;
+        }
+        ByteBuffer source = ByteBuffer.wrap(bytes);
+
+        int[] locations = new int[ENTRIES];
+        int totalSectors = 2;
+        for (int i = 0; i < ENTRIES; i++) {
+            int location = source.getInt(i * 4);
+            if (location == 0) {
+                continue;
+            }
+            long start = (long) (location >>> 8) * SECTOR_SIZE;
+            long end = start + (long) (location & 0xff) * SECTOR_SIZE;
+            if (start < SECTOR_SIZE * 2 || end > bytes.length) {
+                continue; // corrupted, drop it while we are at it
+            }
+            if (indices.contains(i)) {
+                if ((bytes[(int) start + 4] & 128) != 0) {
+                    Files.deleteIfExists(directory.resolve("c." + (regionX * 32 + (i & 31)) + "." + (regionZ * 32 + (i >> 5)) + ".mcc"));
+                }
+                continue;
+            }
+            locations[i] = location;
+            totalSectors += location & 0xff;
+        }
+
+        if (totalSectors == 2) {
+            Files.delete(file);
+            return;
+        }
+
+        ByteBuffer target = ByteBuffer.allocate(totalSectors * SECTOR_SIZE);
+        int nextSector = 2;
+        for (int i = 0; i < ENTRIES; i++) {
+            int location = locations[i];
+            if (location == 0) {
+                continue;
+            }
+            int sectors = location & 0xff;
+            target.put(nextSector * SECTOR_SIZE, bytes, (location >>> 8) * SECTOR_SIZE, sectors * SECTOR_SIZE);
+            target.putInt(i * 4, nextSector << 8 | sectors);
+            target.putInt(SECTOR_SIZE + i * 4, source.getInt(SECTOR_SIZE + i * 4)); // timestamp
+            nextSector += sectors;
+        }
+
+        Path tmpFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmpFile, target.array());
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private static int index(int localX, int localZ) {
+        return localX + localZ * 32;
+    }
+
+    private static class CacheDirectory {
+        private final Path path;
+        private final String server;
+        private final List<Entry> entries = new ArrayList<>();
+        private long size;
+
+        private CacheDirectory(Path path, String server) {
+            this.path = path;
+            this.server = server;
+        }
+
+        private void index() throws IOException {
+            Long2LongMap regionAccessTimes = LastAccessFile.readRegionAccessTimes(path);
+            Long2LongMap chunkAccessTimes = LastAccessFile.readChunkAccessTimes(path);
+
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(path)) {
+                files = stream.collect(Collectors.toList());
+            }
+
+            // Chunks too large for their region file are stored in separate files, which are deleted along with them
+            Long2LongMap externalSizes = new Long2LongOpenHashMap();
+            for (Path file : files) {
+                Matcher matcher = EXTERNAL_CHUNK_FILE_PATTERN.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    long chunk = ChunkPos.toLong(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+                    externalSizes.put(chunk, Files.size(file));
+                }
+            }
+
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                Matcher matcher = REGION_FILE_PATTERN.matcher(fileName);
+                boolean compact = false;
+                if (!matcher.matches()) {
+                    matcher = CompactRegionFile.FILE_PATTERN.matcher(fileName);
+                    compact = true;
+                    if (!matcher.matches()) {
+                        continue;
+                    }
+                }
+                int regionX = Integer.parseInt(matcher.group(1));
+                int regionZ = Integer.parseInt(matcher.group(2));
+                long regionAccessTime = regionAccessTimes.getOrDefault(ChunkPos.toLong(regionX, regionZ), 0);
+
+                int[] sizes = compact ? readCompactSizes(file) : readVanillaSizes(file);
+                for (int i = 0; i < ENTRIES; i++) {
+                    if (sizes[i] == 0) {
+                        continue;
+                    }
+                    long chunk = ChunkPos.toLong(regionX * 32 + (i & 31), regionZ * 32 + (i >> 5));
+                    long lastAccess = chunkAccessTimes.getOrDefault(chunk, regionAccessTime);
+                    long size = compact ? sizes[i] : sizes[i] + externalSizes.get(chunk);
+                    entries.add(new Entry(chunk, lastAccess, size));
+                }
+            }
+        }
+
+        private static int[] readVanillaSizes(Path file) throws IOException {
+            int[] sizes = new int[ENTRIES];
+            byte[] header = new byte[ENTRIES * 4];
+            try (var in = Files.newInputStream(file)) {
+                if (in.readNBytes(header, 0, header.length) < header.length) {
+                    return sizes;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            for (int i = 0; i < ENTRIES; i++) {
+                sizes[i] = (buffer.getInt(i * 4) & 0xff) * SECTOR_SIZE;
+            }
+            return sizes;
+        }
+
+        private static int[] readCompactSizes(Path file) throws IOException {
+            int[] sizes = new int[ENTRIES];
+            CompactRegionFile region = CompactRegionFile.open(file, false);
+            if (region != null) {
+                try (region) {
+                    for (int i = 0; i < ENTRIES; i++) {
+                        sizes[i] = region.getStoredLength(i & 31, i >> 5);
+                    }
+                }
+            }
+            return sizes;
+        }
+    }
+
+    private static class Entry {
+        private final long chunk;
+        private final long lastAccess;
+        private final long size;
+        private boolean evicted;
+
+        private Entry(long chunk, long lastAccess, long size) {
+            this.chunk = chunk;
+            this.lastAccess = lastAccess;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package de.johni0702.minecraft.bobby;
+
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.util.math.ChunkPos;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of which chunks exist in a given folder, so we can answer queries for chunks we have never stored
+ * without touching the disk.
+ *
+ * For each region, we keep a bitmap of the 32x32 chunks in it. It is built from the region file headers the first time
+ * a region is queried, and updated whenever we write a chunk. For writeable folders, the bitmaps are persisted, so we do
+ * not even need to read the headers again in the next session. Same as with the {@link FingerprintFile}, the file is
+ * deleted when read and only written back on a clean close, so a crash can never leave us with chunks we do not know
+ * about.
+ *
+ * False positives (e.g. if a region file was modified behind our back) are harmless, they merely cause a regular read
+ * which then finds nothing. Chunks evicted by the {@link CacheSizeLimiter} are removed via {@link #removeChunks}.
+ */
+public class ChunkExistenceIndex implements Closeable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String FILE_NAME = "chunk_index";
+
+    private static final int ENTRIES = 32 * 32;
+    private static final int WORDS = ENTRIES / 64;
+    private static final long[] EMPTY = new long[WORDS];
+
+    private final Path directory;
+    @Nullable
+    private final Path path;
+    private final Long2ObjectMap<long[]> regions;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    public ChunkExistenceIndex(Path directory, boolean persistent) {
+        this.directory = directory;
+        this.path = persistent ? directory.resolve(FILE_NAME) : null;
+
+        Long2ObjectMap<long[]> regions = new Long2ObjectOpenHashMap<>();
+        if (path != null) {
+            try {
+                regions = read(path);
+                Files.deleteIfExists(path);
+            } catch (Exception e) {
+                LOGGER.error("Error parsing " + path + ", it will be rebuilt:", e);
+                regions = new Long2ObjectOpenHashMap<>();
+            }
+        }
+        this.regions = regions;
+    }
+
+    /**
+     * @return {@code false} if the chunk definitely does not exist, {@code true} if it may exist
+     */
+    public boolean mayContain(ChunkPos pos) {
+        boolean present = peek(pos);
+        (present ? hits : misses).incrementAndGet();
+        return present;
+    }
+
+    /**
+     * Same as {@link #mayContain(ChunkPos)} but without affecting the statistics.
+     */
+    public boolean peek(ChunkPos pos) {
+        long[] bitmap = getBitmap(pos.getRegionX(), pos.getRegionZ());
+        int index = index(pos);
+        synchronized (regions) {
+            return (bitmap[index >> 6] & (1L << index)) != 0;
+        }
+    }
+
+    /**
+     * To be called when a chunk for which {@link #mayContain(ChunkPos)} returned {@code true} did not actually exist.
+     */
+    public void reportFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    public void add(ChunkPos pos) {
+        long regionKey = ChunkPos.toLong(pos.getRegionX(), pos.getRegionZ());
+        int index = index(pos);
+        long[] bitmap = getBitmap(pos.getRegionX(), pos.getRegionZ());
+        synchronized (regions) {
+            if (bitmap == EMPTY) {
+                bitmap = regions.get(regionKey);
+                if (bitmap == EMPTY) {
+                    bitmap = new long[WORDS];
+                    regions.put(regionKey, bitmap);
+                }
+            }
+            bitmap[index >> 6] |= 1L << index;
+        }
+    }
+
+    public void removeRegion(int regionX, int regionZ) {
+        synchronized (regions) {
+            regions.put(ChunkPos.toLong(regionX, regionZ), EMPTY);
+        }
+    }
+
+    /**
+     * Removes the given chunks from the index of a folder which is not currently in use.
+     */
+    static void removeChunks(Path directory, LongSet chunks) throws IOException {
+        Path path = directory.resolve(FILE_NAME);
+        if (Files.notExists(path)) {
+            return;
+        }
+        ChunkExistenceIndex index = new ChunkExistenceIndex(directory, true);
+        for (long chunk : chunks) {
+            ChunkPos pos = new ChunkPos(chunk);
+            long[] bitmap = index.regions.get(ChunkPos.toLong(pos.getRegionX(), pos.getRegionZ()));
+            if (bitmap != null && bitmap != EMPTY) {
+                int i = index(pos);
+                bitmap[i >> 6] &= ~(1L << i);
+            }
+        }
+        index.close();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+    private long[] getBitmap(int regionX, int regionZ) {
+        long key = ChunkPos.toLong(regionX, regionZ);
+        long[] bitmap;
+        synchronized (regions) {
+            bitmap = regions.get(key);
+        }
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        // Reading the headers outside the lock, worst case two threads read the same one
+        long[] built = build(regionX, regionZ);
+        synchronized (regions) {
+            bitmap = regions.get(key);
+            if (bitmap == null) {
+                bitmap = built;
+                regions.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    private long[] build(int regionX, int regionZ) {
+        long[] bitmap = new long[WORDS];
+        boolean empty = true;
+        try {
+            Path vanillaFile = directory.resolve("r." + regionX + "." + regionZ + ".mca");
+            if (Files.exists(vanillaFile)) {
+                byte[] header = new byte[ENTRIES * 4];
+                int read;
+                try (InputStream in = Files.newInputStream(vanillaFile)) {
+                    read = in.readNBytes(header, 0, header.length);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(header, 0, read);
+                for (int i = 0; i < read / 4; i++) {
+                    if (buffer.getInt(i * 4) != 0) {
+                        bitmap[i >> 6] |= 1L << i;
+                        empty = false;
+                    }
+                }
+            }
+
+            Path compactFile = directory.resolve(CompactRegionFile.getFileName(regionX, regionZ));
+            CompactRegionFile compactRegion = CompactRegionFile.open(compactFile, false);
+            if (compactRegion != null) {
+                try (compactRegion) {
+                    for (int i = 0; i < ENTRIES; i++) {
+                        if (compactRegion.contains(i & 31, i >> 5)) {
+                            bitmap[i >> 6] |= 1L << i;
+                            empty = false;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to index region " + regionX + "/" + regionZ + " in " + directory + ":", e);
+            // Do not know, so we have to assume everything may exist
+            Arrays.fill(bitmap, -1L);
+            return bitmap;
+        }
+        return empty ? EMPTY : bitmap;
+    }
+
+    private static int index(ChunkPos pos) {
+        return pos.getRegionRelativeX() + pos.getRegionRelativeZ() * 32;
+    }
+
+    private static Long2ObjectMap<long[]> read(Path path) throws IOException {
+        Long2ObjectMap<long[]> map = new Long2ObjectOpenHashMap<>();
+        if (Files.exists(path)) {
+            PacketByteBuf buf = new PacketByteBuf(Unpooled.wrappedBuffer(Files.readAllBytes(path)));
+            while (buf.isReadable()) {
+                int x = buf.readVarInt();
+                int z = buf.readVarInt();
+                long[] bitmap = new long[WORDS];
+                boolean empty = true;
+                for (int i = 0; i < WORDS; i++) {
+                    bitmap[i] = buf.readLong();
+                    empty &= bitmap[i] == 0;
+                }
+                map.put(ChunkPos.toLong(x, z), empty ? EMPTY : bitmap);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (path == null) {
+            return;
+        }
+
+        PacketByteBuf buf;
+        synchronized (regions) {
+            buf = new PacketByteBuf(Unpooled.buffer(regions.size() * (8 + WORDS * 8)));
+            for (Long2ObjectMap.Entry<long[]> entry : regions.long2ObjectEntrySet()) {
+                buf.writeVarInt(ChunkPos.getPackedX(entry.getLongKey()));
+                buf.writeVarInt(ChunkPos.getPackedZ(entry.getLongKey()));
+                for (long word : entry.getValue()) {
+                    buf.writeLong(word);
+                }
+            }
+        }
+
+        Path tmpFile = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmpFile, buf.getWrittenBytes());
+            Files.move(tmpFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package de.johni0702.minecraft.bobby;
+
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.SharedConstants;
+import net.minecraft.block.Block;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.chunk.ChunkNibbleArray;
+import net.minecraft.world.chunk.ChunkSection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Computes a 64-bit hash over everything we store of a chunk (sections, light and block entities), so we can tell
+ * whether a chunk has changed since we last saved it without having to serialize it.
+ *
+ * Sections are hashed in their network form, i.e. using raw ids, which is a lot cheaper than the by-name format we
+ * store on disk. To not mistake chunks after the raw ids have changed (e.g. different mods or game version), these are
+ * included in the hash as well.
+ */
+public class ChunkFingerprint {
+    private static final ThreadLocal<PacketByteBuf> BUFFER = ThreadLocal.withInitial(() -> new PacketByteBuf(Unpooled.buffer(64 * 1024)));
+
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * @param chunk a chunk as returned by {@link ChunkSerializer#shallowCopy}
+     */
+    public static long compute(FakeChunk chunk) {
+        long hash = SharedConstants.getGameVersion().getSaveVersion().getId();
+        hash = mix(hash, Block.STATE_IDS.size());
+        hash = mix(hash, chunk.getWorld().getRegistryManager().get(Registry.BIOME_KEY).size());
+
+        PacketByteBuf buf = BUFFER.get();
+        buf.clear();
+        for (ChunkSection section : chunk.getSectionArray()) {
+            section.toPacket(buf);
+        }
+        hash = mix(hash, buf);
+
+        hash = mix(hash, chunk.blockLight);
+        hash = mix(hash, chunk.skyLight);
+
+        NbtList blockEntities = chunk.serializedBlockEntities;
+        hash = mix(hash, blockEntities != null ? blockEntities.hashCode() : 0);
+
+        return HashCommon.mix(hash);
+    }
+
+    private static long mix(long hash, ChunkNibbleArray[] light) {
+        for (ChunkNibbleArray section : light) {
+            if (section == null || section.isUninitialized()) {
+                hash = mix(hash, 0);
+            } else {
+                hash = mix(hash, section.asByteArray());
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, PacketByteBuf buf) {
+        int length = buf.writerIndex();
+        hash = mix(hash, length);
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            hash = mix(hash, buf.getLongLE(i));
+        }
+        for (; i < length; i++) {
+            hash = mix(hash, buf.getByte(i));
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, byte[] bytes) {
+        hash = mix(hash, bytes.length);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int i = 0;
+        for (; i + 8 <= bytes.length; i += 8) {
+            hash = mix(hash, buffer.getLong(i));
+        }
+        for (; i < bytes.length; i++) {
+            hash = mix(hash, bytes[i]);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        return Long.rotateLeft((hash ^ value) * MULTIPLIER, 31);
+    }
+}
@@ -11,9 +11,13 @@ import net.minecraft.nbt.NbtElement;
 import net.minecraft.nbt.NbtList;
 import net.minecraft.nbt.NbtLongArray;
 import net.minecraft.nbt.NbtOps;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.collection.IndexedIterable;
+import net.minecraft.util.collection.PackedIntegerArray;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.registry.Registry;
 import net.minecraft.util.registry.RegistryEntry;
 import net.minecraft.util.registry.RegistryKey;
@@ -22,7 +26,6 @@ import net.minecraft.world.LightType;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.biome.BiomeKeys;
-import net.minecraft.world.chunk.ChunkManager;
 import net.minecraft.world.chunk.ChunkNibbleArray;
 import net.minecraft.world.chunk.ChunkSection;
 import net.minecraft.world.chunk.PalettedContainer;
@@ -38,13 +41,18 @@ import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 
 public class ChunkSerializer {
     private static final Logger LOGGER = LogManager.getLogger();
 
-    private static final ChunkNibbleArray COMPLETELY_DARK = new ChunkNibbleArray();
-    private static final ChunkNibbleArray COMPLETELY_LIT = new ChunkNibbleArray();
+    // How far below the lowest point of the surface we still decode sections in reduced detail chunks (in blocks)
+    private static final int LOD_SURFACE_MARGIN = 16;
+    // Shared between all fake chunks, must never be modified
+    static final ChunkNibbleArray COMPLETELY_DARK = new ChunkNibbleArray();
+    static final ChunkNibbleArray COMPLETELY_LIT = new ChunkNibbleArray();
     static {
         for (int x = 0; x < 16; x++) {
             for (int y = 0; y < 16; y++) {
@@ -61,15 +69,50 @@ public class ChunkSerializer {
             Blocks.AIR.getDefaultState()
     );
 
-    public static NbtCompound serialize(WorldChunk chunk, LightingProvider lightingProvider) {
-        Registry<Biome> biomeRegistry = chunk.getWorld().getRegistryManager().get(Registry.BIOME_KEY);
-        Codec<ReadableContainer<RegistryEntry<Biome>>> biomeCodec = PalettedContainer.createReadableContainerCodec(
-                biomeRegistry.getIndexedEntries(),
-                biomeRegistry.createEntryCodec(),
-                PalettedContainer.PaletteProvider.BIOME,
-                biomeRegistry.entryOf(BiomeKeys.PLAINS)
-        );
+    /**
+     * Registry lookups and codecs which only depend on the world. Building these is surprisingly expensive, so each
+     * {@link FakeChunkManager} creates one context for its world and shares it between all loading and saving threads.
+     */
+    public static class Context {
+        private final Registry<Biome> biomeRegistry;
+        private final IndexedIterable<RegistryEntry<Biome>> biomes;
+        private final RegistryEntry<Biome> defaultBiome;
+        private final Codec<ReadableContainer<RegistryEntry<Biome>>> biomeEncoder;
+        private final Codec<PalettedContainer<RegistryEntry<Biome>>> biomeDecoder;
+        private final Map<Identifier, RegistryEntry<Biome>> biomesById = new ConcurrentHashMap<>();
+
+        public Context(World world) {
+            this.biomeRegistry = world.getRegistryManager().get(Registry.BIOME_KEY);
+            this.biomes = biomeRegistry.getIndexedEntries();
+            this.defaultBiome = biomeRegistry.entryOf(BiomeKeys.PLAINS);
+            this.biomeEncoder = PalettedContainer.createReadableContainerCodec(
+                    biomes,
+                    biomeRegistry.createEntryCodec(),
+                    PalettedContainer.PaletteProvider.BIOME,
+                    defaultBiome
+            );
+            this.biomeDecoder = PalettedContainer.createPalettedContainerCodec(
+                    biomes,
+                    biomeRegistry.createEntryCodec(),
+                    PalettedContainer.PaletteProvider.BIOME,
+                    defaultBiome
+            );
+        }
+
+        public IndexedIterable<RegistryEntry<Biome>> getBiomes() {
+            return biomes;
+        }
+
+        public RegistryEntry<Biome> getDefaultBiome() {
+            return defaultBiome;
+        }
+
+        public RegistryEntry<Biome> getBiome(Identifier id) {
+            return biomesById.computeIfAbsent(id, key -> biomeRegistry.getEntry(RegistryKey.of(Registry.BIOME_KEY, key)).orElse(defaultBiome));
+        }
+    }
 
+    public static NbtCompound serialize(WorldChunk chunk, LightingProvider lightingProvider, Context context, boolean binarySections) {
         ChunkPos chunkPos = chunk.getPos();
         NbtCompound level = new NbtCompound();
         level.putInt("DataVersion", SharedConstants.getGameVersion().getSaveVersion().getId());
@@ -79,6 +122,38 @@ public class ChunkSerializer {
         level.putBoolean("isLightOn", true);
         level.putString("Status", "full");
 
+        if (binarySections) {
+            level.putByteArray(BinarySectionSerializer.KEY, BinarySectionSerializer.write(chunk, lightingProvider, context));
+        } else {
+            level.put("sections", serializeSections(chunk, lightingProvider, context));
+        }
+
+        NbtList blockEntitiesTag;
+        if (chunk instanceof FakeChunk fakeChunk) {
+            blockEntitiesTag = fakeChunk.serializedBlockEntities;
+        } else {
+            blockEntitiesTag = new NbtList();
+            for (BlockPos pos : chunk.getBlockEntityPositions()) {
+                NbtCompound blockEntityTag = chunk.getPackedBlockEntityNbt(pos);
+                if (blockEntityTag != null) {
+                    blockEntitiesTag.add(blockEntityTag);
+                }
+            }
+        }
+        level.put("block_entities", blockEntitiesTag);
+
+        NbtCompound hightmapsTag = new NbtCompound();
+        for (Map.Entry<Heightmap.Type, Heightmap> entry : chunk.getHeightmaps()) {
+            if (chunk.getStatus().getHeightmapTypes().contains(entry.getKey())) {
+                hightmapsTag.put(entry.getKey().getName(), new NbtLongArray(entry.getValue().asLongArray()));
+            }
+        }
+        level.put("Heightmaps", hightmapsTag);
+
+        return level;
+    }
+
+    private static NbtList serializeSections(WorldChunk chunk, LightingProvider lightingProvider, Context context) {
         ChunkSection[] chunkSections = chunk.getSectionArray();
         NbtList sectionsTag = new NbtList();
 
@@ -92,21 +167,17 @@ public class ChunkSerializer {
             ChunkSection chunkSection = i >= 0 && i < chunkSections.length ? chunkSections[i] : null;
             if (chunkSection != null) {
                 sectionTag.put("block_states", BLOCK_CODEC.encodeStart(NbtOps.INSTANCE, chunkSection.getBlockStateContainer()).getOrThrow(false, LOGGER::error));
-                sectionTag.put("biomes", biomeCodec.encodeStart(NbtOps.INSTANCE, chunkSection.getBiomeContainer()).getOrThrow(false, LOGGER::error));
+                sectionTag.put("biomes", context.biomeEncoder.encodeStart(NbtOps.INSTANCE, chunkSection.getBiomeContainer()).getOrThrow(false, LOGGER::error));
                 empty = false;
             }
 
-            ChunkNibbleArray blockLight = chunk instanceof FakeChunk fakeChunk
-                    ? fakeChunk.blockLight[i + 1]
-                    : lightingProvider.get(LightType.BLOCK).getLightSection(ChunkSectionPos.from(chunkPos, y));
+            ChunkNibbleArray blockLight = getBlockLight(chunk, lightingProvider, i, y);
             if (blockLight != null && !blockLight.isUninitialized()) {
                 sectionTag.putByteArray("BlockLight", blockLight.asByteArray());
                 empty = false;
             }
 
-            ChunkNibbleArray skyLight = chunk instanceof FakeChunk fakeChunk
-                    ? fakeChunk.skyLight[i + 1]
-                    : lightingProvider.get(LightType.SKY).getLightSection(ChunkSectionPos.from(chunkPos, y));
+            ChunkNibbleArray skyLight = getSkyLight(chunk, lightingProvider, i, y);
             if (skyLight != null && !skyLight.isUninitialized()) {
                 sectionTag.putByteArray("SkyLight", skyLight.asByteArray());
                 empty = false;
@@ -117,63 +188,165 @@ public class ChunkSerializer {
             }
         }
 
-        level.put("sections", sectionsTag);
-
-        NbtList blockEntitiesTag;
-        if (chunk instanceof FakeChunk fakeChunk) {
-            blockEntitiesTag = fakeChunk.serializedBlockEntities;
-        } else {
-            blockEntitiesTag = new NbtList();
-            for (BlockPos pos : chunk.getBlockEntityPositions()) {
-                NbtCompound blockEntityTag = chunk.getPackedBlockEntityNbt(pos);
-                if (blockEntityTag != null) {
-                    blockEntitiesTag.add(blockEntityTag);
-                }
-            }
-        }
-        level.put("block_entities", blockEntitiesTag);
+        return sectionsTag;
+    }
 
-        NbtCompound hightmapsTag = new NbtCompound();
-        for (Map.Entry<Heightmap.Type, Heightmap> entry : chunk.getHeightmaps()) {
-            if (chunk.getStatus().getHeightmapTypes().contains(entry.getKey())) {
-                hightmapsTag.put(entry.getKey().getName(), new NbtLongArray(entry.getValue().asLongArray()));
-            }
-        }
-        level.put("Heightmaps", hightmapsTag);
+    static @Nullable ChunkNibbleArray getBlockLight(WorldChunk chunk, LightingProvider lightingProvider, int index, int y) {
+        return chunk instanceof FakeChunk fakeChunk
+                ? fakeChunk.blockLight[index + 1]
+                : lightingProvider.get(LightType.BLOCK).getLightSection(ChunkSectionPos.from(chunk.getPos(), y));
+    }
 
-        return level;
+    static @Nullable ChunkNibbleArray getSkyLight(WorldChunk chunk, LightingProvider lightingProvider, int index, int y) {
+        return chunk instanceof FakeChunk fakeChunk
+                ? fakeChunk.skyLight[index + 1]
+                : lightingProvider.get(LightType.SKY).getLightSection(ChunkSectionPos.from(chunk.getPos(), y));
     }
 
     // Note: This method is called asynchronously, so any methods called must either be verified to be thread safe (and
     //       must be unlikely to loose that thread safety in the presence of third party mods) or must be delayed
     //       by moving them into the returned supplier which is executed on the main thread.
     //       For performance reasons though: The more stuff we can do async, the better.
-    public static @Nullable Supplier<WorldChunk> deserialize(ChunkPos pos, NbtCompound level, World world) {
+    //
+    // If [lod] is set, only sections around the surface are decoded and everything further below is filled with stone,
+    // see [getLodMinSectionIndex]. Meant for chunks far away from the player, where only the surface is visible anyway.
+    public static @Nullable Finalizer deserialize(ChunkPos pos, NbtCompound level, World world, Context context, boolean lod) {
         ChunkPos chunkPos = new ChunkPos(level.getInt("xPos"), level.getInt("zPos"));
         if (!Objects.equals(pos, chunkPos)) {
             LOGGER.error("Chunk file at {} is in the wrong location; relocating. (Expected {}, got {})", pos, pos, chunkPos);
         }
 
-        Registry<Biome> biomeRegistry = world.getRegistryManager().get(Registry.BIOME_KEY);
-        Codec<PalettedContainer<RegistryEntry<Biome>>> biomeCodec = PalettedContainer.createPalettedContainerCodec(
-                biomeRegistry.getIndexedEntries(),
-                biomeRegistry.createEntryCodec(),
-                PalettedContainer.PaletteProvider.BIOME,
-                biomeRegistry.entryOf(BiomeKeys.PLAINS)
-        );
-
-        NbtList sectionsTag = level.getList("sections", NbtElement.COMPOUND_TYPE);
         ChunkSection[] chunkSections = new ChunkSection[world.countVerticalSections()];
         ChunkNibbleArray[] blockLight = new ChunkNibbleArray[chunkSections.length + 2];
         ChunkNibbleArray[] skyLight = new ChunkNibbleArray[chunkSections.length + 2];
 
         Arrays.fill(blockLight, COMPLETELY_DARK);
 
+        int minSectionIndex = lod ? getLodMinSectionIndex(level, world) : -1;
+
+        if (level.contains(BinarySectionSerializer.KEY, NbtElement.BYTE_ARRAY_TYPE)) {
+            byte[] sectionsData = level.getByteArray(BinarySectionSerializer.KEY);
+            BinarySectionSerializer.read(chunkPos, sectionsData, world, context, chunkSections, blockLight, skyLight, minSectionIndex);
+        } else {
+            deserializeSections(chunkPos, level.getList("sections", NbtElement.COMPOUND_TYPE), world, context, chunkSections, blockLight, skyLight, minSectionIndex);
+        }
+
+        // Fill in the sections we skipped, so there are no holes to look through at the bottom of the ones we kept.
+        // Fake chunks are never modified, so all of these sections can share the same (single value) containers.
+        if (minSectionIndex > 0) {
+            PalettedContainer<BlockState> blocks = new PalettedContainer<>(Block.STATE_IDS, Blocks.STONE.getDefaultState(), PalettedContainer.PaletteProvider.BLOCK_STATE);
+            PalettedContainer<RegistryEntry<Biome>> biomes = new PalettedContainer<>(context.getBiomes(), context.getDefaultBiome(), PalettedContainer.PaletteProvider.BIOME);
+            for (int yIndex = 0; yIndex < minSectionIndex; yIndex++) {
+                ChunkSection chunkSection = new ChunkSection(world.sectionIndexToCoord(yIndex), blocks, biomes);
+                chunkSection.calculateCounts();
+                chunkSections[yIndex] = chunkSection;
+            }
+        }
+        for (int i = 0; i <= minSectionIndex; i++) {
+            skyLight[i] = COMPLETELY_DARK;
+        }
+
+        // Not all light sections are stored. For block light we simply fall back to a completely dark section.
+        // For sky light we need to compute the section based on those above it. We are going top to bottom section.
+
+        // The nearest section data read from storage
+        ChunkNibbleArray fullSectionAbove = null;
+        // The nearest section data computed from the one above (based on its bottom-most layer).
+        // May be re-used for multiple sections once computed.
+        ChunkNibbleArray inferredSection = COMPLETELY_LIT;
+        for (int y = skyLight.length - 1; y >= 0; y--) {
+            ChunkNibbleArray section = skyLight[y];
+
+            // If we found a section, invalidate our inferred section cache and store it for later
+            if (section != null) {
+                inferredSection = null;
+                fullSectionAbove = section;
+                continue;
+            }
+
+            // If we are missing a section, infer it from the previous full section (the result of that can be re-used)
+            if (inferredSection == null) {
+                assert fullSectionAbove != null; // we only clear the cache when we set this
+                inferredSection = floodSkylightFromAbove(fullSectionAbove);
+            }
+            skyLight[y] = inferredSection;
+        }
+
+        FakeChunk chunk = new FakeChunk(world, pos, chunkSections);
+        chunk.lod = lod;
+
+        NbtCompound hightmapsTag = level.getCompound("Heightmaps");
+        EnumSet<Heightmap.Type> missingHightmapTypes = EnumSet.noneOf(Heightmap.Type.class);
+
+        for (Heightmap.Type type : chunk.getStatus().getHeightmapTypes()) {
+            String key = type.getName();
+            if (hightmapsTag.contains(key, NbtElement.LONG_ARRAY_TYPE)) {
+                chunk.setHeightmap(type, hightmapsTag.getLongArray(key));
+            } else {
+                missingHightmapTypes.add(type);
+            }
+        }
+
+        Heightmap.populateHeightmaps(chunk, missingHightmapTypes);
+
+        NbtList blockEntitiesTag = level.getList("block_entities", NbtElement.COMPOUND_TYPE);
+        // Block entities are only rendered up close, so there is no point in loading them for far away chunks
+        if (!BobbyConfig.isNoBlockEntities() && !lod) {
+            for (int i = 0; i < blockEntitiesTag.size(); i++) {
+                chunk.addPendingBlockEntityNbt(blockEntitiesTag.getCompound(i));
+            }
+        }
+
+        // Keeping these, so the chunk can be re-used once unloaded, see [reuse]
+        chunk.blockLight = blockLight;
+        chunk.skyLight = skyLight;
+        chunk.serializedBlockEntities = blockEntitiesTag;
+
+        return loadChunk(chunk, blockLight, skyLight);
+    }
+
+    // Creates a new fake chunk from one which has previously been loaded and since been unloaded (see FakeChunkCache),
+    // without having to go through serialization. The old chunk must no longer be in use.
+    public static Finalizer reuse(FakeChunk old) {
+        FakeChunk chunk = new FakeChunk(old.getWorld(), old.getPos(), old.getSectionArray());
+        chunk.lod = old.lod;
+        chunk.blockLight = old.blockLight;
+        chunk.skyLight = old.skyLight;
+        chunk.serializedBlockEntities = old.serializedBlockEntities;
+
+        for (Map.Entry<Heightmap.Type, Heightmap> entry : old.getHeightmaps()) {
+            chunk.setHeightmap(entry.getKey(), entry.getValue());
+        }
+
+        if (!BobbyConfig.isNoBlockEntities() && !old.lod) {
+            NbtList blockEntitiesTag = old.serializedBlockEntities;
+            for (int i = 0; i < blockEntitiesTag.size(); i++) {
+                chunk.addPendingBlockEntityNbt(blockEntitiesTag.getCompound(i));
+            }
+        }
+
+        return loadChunk(chunk, old.blockLight, old.skyLight);
+    }
+
+    private static void deserializeSections(
+            ChunkPos chunkPos,
+            NbtList sectionsTag,
+            World world,
+            Context context,
+            ChunkSection[] chunkSections,
+            ChunkNibbleArray[] blockLight,
+            ChunkNibbleArray[] skyLight,
+            int minSectionIndex
+    ) {
         for (int i = 0; i < sectionsTag.size(); i++) {
             NbtCompound sectionTag = sectionsTag.getCompound(i);
             int y = sectionTag.getByte("Y");
             int yIndex = world.sectionCoordToIndex(y);
 
+            if (yIndex < minSectionIndex) {
+                continue; // not needed, see [deserialize]
+            }
+
             if (yIndex < -1 || yIndex > chunkSections.length) {
                 // There used to be a bug where we pass the block coordinates to the ChunkSection constructor (as was
                 // done in 1.16) but the constructor expects section coordinates now, leading to an incorrect y position
@@ -200,11 +373,11 @@ public class ChunkSerializer {
 
                 PalettedContainer<RegistryEntry<Biome>> biomes;
                 if (sectionTag.contains("biomes", NbtElement.COMPOUND_TYPE)) {
-                    biomes = biomeCodec.parse(NbtOps.INSTANCE, sectionTag.getCompound("biomes"))
+                    biomes = context.biomeDecoder.parse(NbtOps.INSTANCE, sectionTag.getCompound("biomes"))
                             .promotePartial((errorMessage) -> logRecoverableError(chunkPos, y, errorMessage))
                             .getOrThrow(false, LOGGER::error);
                 } else {
-                    biomes = new PalettedContainer<>(biomeRegistry.getIndexedEntries(), biomeRegistry.entryOf(BiomeKeys.PLAINS), PalettedContainer.PaletteProvider.BIOME);
+                    biomes = new PalettedContainer<>(context.getBiomes(), context.getDefaultBiome(), PalettedContainer.PaletteProvider.BIOME);
                 }
 
                 ChunkSection chunkSection = new ChunkSection(y, blocks, biomes);
@@ -222,89 +395,130 @@ public class ChunkSerializer {
                 skyLight[yIndex + 1] = new ChunkNibbleArray(sectionTag.getByteArray("SkyLight"));
             }
         }
+    }
 
-        // Not all light sections are stored. For block light we simply fall back to a completely dark section.
-        // For sky light we need to compute the section based on those above it. We are going top to bottom section.
-
-        // The nearest section data read from storage
-        ChunkNibbleArray fullSectionAbove = null;
-        // The nearest section data computed from the one above (based on its bottom-most layer).
-        // May be re-used for multiple sections once computed.
-        ChunkNibbleArray inferredSection = COMPLETELY_LIT;
-        for (int y = skyLight.length - 1; y >= 0; y--) {
-            ChunkNibbleArray section = skyLight[y];
-
-            // If we found a section, invalidate our inferred section cache and store it for later
-            if (section != null) {
-                inferredSection = null;
-                fullSectionAbove = section;
-                continue;
-            }
+    /**
+     * Determines the lowest section which should be decoded for a reduced detail chunk: everything from a little below
+     * the lowest point of the surface upwards. Note that the surface includes water, so deep ocean floors are cut off
+     * as well, which is barely noticeable at the distances this is used at.
+     *
+     * @return index of the lowest section to decode, -1 to decode all of them
+     */
+    private static int getLodMinSectionIndex(NbtCompound level, World world) {
+        return getLodMinSectionIndex(level.getCompound("Heightmaps").getLongArray(Heightmap.Type.WORLD_SURFACE.getName()), world);
+    }
 
-            // If we are missing a section, infer it from the previous full section (the result of that can be re-used)
-            if (inferredSection == null) {
-                assert fullSectionAbove != null; // we only clear the cache when we set this
-                inferredSection = floodSkylightFromAbove(fullSectionAbove);
+    /**
+     * Same as {@link #getLodMinSectionIndex(NbtCompound, World)} but for a chunk which has already been loaded, so we
+     * can tell how much of it would be replaced if it was loaded in reduced detail.
+     */
+    static int getLodMinSectionIndex(FakeChunk chunk) {
+        for (Map.Entry<Heightmap.Type, Heightmap> entry : chunk.getHeightmaps()) {
+            if (entry.getKey() == Heightmap.Type.WORLD_SURFACE) {
+                return getLodMinSectionIndex(entry.getValue().asLongArray(), chunk.getWorld());
             }
-            skyLight[y] = inferredSection;
         }
+        return -1;
+    }
 
-        FakeChunk chunk = new FakeChunk(world, pos, chunkSections);
-
-        NbtCompound hightmapsTag = level.getCompound("Heightmaps");
-        EnumSet<Heightmap.Type> missingHightmapTypes = EnumSet.noneOf(Heightmap.Type.class);
-
-        for (Heightmap.Type type : chunk.getStatus().getHeightmapTypes()) {
-            String key = type.getName();
-            if (hightmapsTag.contains(key, NbtElement.LONG_ARRAY_TYPE)) {
-                chunk.setHeightmap(type, hightmapsTag.getLongArray(key));
-            } else {
-                missingHightmapTypes.add(type);
-            }
+    private static int getLodMinSectionIndex(long[] data, World world) {
+        if (data.length == 0) {
+            return -1;
         }
-
-        Heightmap.populateHeightmaps(chunk, missingHightmapTypes);
-
-        if (!BobbyConfig.isNoBlockEntities()) {
-            NbtList blockEntitiesTag = level.getList("block_entities", NbtElement.COMPOUND_TYPE);
-            for (int i = 0; i < blockEntitiesTag.size(); i++) {
-                chunk.addPendingBlockEntityNbt(blockEntitiesTag.getCompound(i));
-            }
+        PackedIntegerArray heights;
+        try {
+            heights = new PackedIntegerArray(MathHelper.ceilLog2(world.getHeight() + 1), 256, data);
+        } catch (IllegalArgumentException e) {
+            return -1;
         }
-
-        return loadChunk(chunk, blockLight, skyLight);
+        int minHeight = Integer.MAX_VALUE;
+        for (int i = 0; i < 256; i++) {
+            minHeight = Math.min(minHeight, heights.get(i));
+        }
+        // Heightmap values are relative to the bottom of the world and point at the block above the top-most one
+        int minSurfaceY = world.getBottomY() + minHeight - 1;
+        return MathHelper.clamp(world.getSectionIndex(minSurfaceY - LOD_SURFACE_MARGIN), -1, world.countVerticalSections());
     }
 
-    private static Supplier<WorldChunk> loadChunk(
+    private static Finalizer loadChunk(
             FakeChunk chunk,
             ChunkNibbleArray[] blockLight,
             ChunkNibbleArray[] skyLight
     ) {
-        return () -> {
-            ChunkPos pos = chunk.getPos();
-            World world = chunk.getWorld();
-            ChunkSection[] chunkSections = chunk.getSectionArray();
+        return new Finalizer(chunk, blockLight, skyLight);
+    }
 
-            boolean hasSkyLight = world.getDimension().hasSkyLight();
-            ChunkManager chunkManager = world.getChunkManager();
-            LightingProvider lightingProvider = chunkManager.getLightingProvider();
-//            LightingProviderExt lightingProviderExt = LightingProviderExt.get(lightingProvider);
-            ChunkLightProviderExt blockLightProvider = ChunkLightProviderExt.get(lightingProvider.get(LightType.BLOCK));
-            ChunkLightProviderExt skyLightProvider = ChunkLightProviderExt.get(lightingProvider.get(LightType.SKY));
+    /**
+     * Does all the work required to add a fake chunk to the world which has to happen on the main thread.
+     *
+     * For tall worlds with many block entities, this can take several milliseconds per chunk, so the work is split into
+     * small steps (one light section or block entity at a time) and {@link #step(BooleanSupplier)} may stop between
+     * any two of them, to be resumed in the next frame. {@link #get()} simply runs all remaining steps at once.
+     */
+    public static class Finalizer implements Supplier<WorldChunk> {
+        private final FakeChunk chunk;
+        private final ChunkNibbleArray[] blockLight;
+        private final ChunkNibbleArray[] skyLight;
+
+        // Index (into the light arrays) of the next light section to register
+        private int nextLightSection;
+        private boolean tainted;
+        @Nullable
+        private BlockPos[] blockEntityPositions;
+        private int nextBlockEntity;
+        private boolean done;
+
+        private Finalizer(FakeChunk chunk, ChunkNibbleArray[] blockLight, ChunkNibbleArray[] skyLight) {
+            this.chunk = chunk;
+            this.blockLight = blockLight;
+            this.skyLight = skyLight;
+        }
 
-//            lightingProviderExt.bobby_enabledColumn(pos.toLong());
+        /**
+         * Runs finalization steps until either it is complete or {@code shouldKeepTicking} returns {@code false}.
+         * At least one step is always run.
+         *
+         * @return {@code true} once the chunk has been fully finalized
+         */
+        public boolean step(BooleanSupplier shouldKeepTicking) {
+            if (done) {
+                return true;
+            }
 
-            for (int i = -1; i < chunkSections.length + 1; i++) {
-                int y = world.sectionIndexToCoord(i);
-                if (blockLightProvider != null) {
-                    blockLightProvider.bobby_addSectionData(ChunkSectionPos.from(pos, y).asLong(), blockLight[i + 1]);
-                }
-                if (skyLightProvider != null && hasSkyLight) {
-                    skyLightProvider.bobby_addSectionData(ChunkSectionPos.from(pos, y).asLong(), skyLight[i + 1]);
-                }
+            World world = chunk.getWorld();
+            ChunkPos pos = chunk.getPos();
+
+            if (nextLightSection < blockLight.length) {
+                boolean hasSkyLight = world.getDimension().hasSkyLight();
+                LightingProvider lightingProvider = world.getChunkManager().getLightingProvider();
+//                LightingProviderExt lightingProviderExt = LightingProviderExt.get(lightingProvider);
+                ChunkLightProviderExt blockLightProvider = ChunkLightProviderExt.get(lightingProvider.get(LightType.BLOCK));
+                ChunkLightProviderExt skyLightProvider = ChunkLightProviderExt.get(lightingProvider.get(LightType.SKY));
+
+//                lightingProviderExt.bobby_enabledColumn(pos.toLong());
+
+                do {
+                    int i = nextLightSection++;
+                    int y = world.sectionIndexToCoord(i - 1);
+                    if (blockLightProvider != null) {
+                        blockLightProvider.bobby_addSectionData(ChunkSectionPos.from(pos, y).asLong(), blockLight[i]);
+                    }
+                    if (skyLightProvider != null && hasSkyLight) {
+                        skyLightProvider.bobby_addSectionData(ChunkSectionPos.from(pos, y).asLong(), skyLight[i]);
+                    }
+                    if (!shouldKeepTicking.getAsBoolean()) {
+                        return false;
+                    }
+                } while (nextLightSection < blockLight.length);
             }
 
-            chunk.setTainted(BobbyConfig.isTaintFakeChunks());
+            if (!tainted) {
+                tainted = true;
+                chunk.setTainted(BobbyConfig.isTaintFakeChunks());
+                if (!shouldKeepTicking.getAsBoolean()) {
+                    return false;
+                }
+            }
 
             // MC lazily loads block entities when they are first accessed.
             // It does so in a thread-unsafe way though, so if they are first accessed from e.g. a render thread, this
@@ -312,14 +526,52 @@ public class ChunkSerializer {
             // even in vanilla, e.g. if a block entity is removed while it is accessed, but apparently no one at Mojang
             // has run into that so far). To work around this, we force all block entities to be initialized
             // immediately, before any other code gets access to the chunk.
-            for (BlockPos blockPos : chunk.getBlockEntityPositions()) {
-                chunk.getBlockEntity(blockPos);
+            if (blockEntityPositions == null) {
+                blockEntityPositions = chunk.getBlockEntityPositions().toArray(new BlockPos[0]);
+            }
+            while (nextBlockEntity < blockEntityPositions.length) {
+                chunk.getBlockEntity(blockEntityPositions[nextBlockEntity++]);
+                if (nextBlockEntity < blockEntityPositions.length && !shouldKeepTicking.getAsBoolean()) {
+                    return false;
+                }
             }
 
             chunk.setShouldRenderOnUpdate(true);
 
+            done = true;
+            return true;
+        }
+
+        /**
+         * Reverts the steps run so far, for when the chunk is no longer needed before it was fully finalized.
+         */
+        public void abort() {
+            if (done || nextLightSection == 0) {
+                return;
+            }
+
+            World world = chunk.getWorld();
+            ChunkPos pos = chunk.getPos();
+            LightingProvider lightingProvider = world.getChunkManager().getLightingProvider();
+            ChunkLightProviderExt blockLightProvider = ChunkLightProviderExt.get(lightingProvider.get(LightType.BLOCK));
+            ChunkLightProviderExt skyLightProvider = ChunkLightProviderExt.get(lightingProvider.get(LightType.SKY));
+            for (int i = 0; i < nextLightSection; i++) {
+                int y = world.sectionIndexToCoord(i - 1);
+                if (blockLightProvider != null) {
+                    blockLightProvider.bobby_removeSectionData(ChunkSectionPos.from(pos, y).asLong());
+                }
+                if (skyLightProvider != null) {
+                    skyLightProvider.bobby_removeSectionData(ChunkSectionPos.from(pos, y).asLong());
+                }
+            }
+            nextLightSection = 0;
+        }
+
+        @Override
+        public WorldChunk get() {
+            step(() -> true);
             return chunk;
-        };
+        }
     }
 
     // This method is called before the original chunk is unloaded and needs to return a supplier
@@ -379,7 +631,7 @@ public class ChunkSerializer {
         }
     }
 
-    private static void logRecoverableError(ChunkPos chunkPos, int y, String message) {
+    static void logRecoverableError(ChunkPos chunkPos, int y, String message) {
         LOGGER.error("Recoverable errors when loading section [" + chunkPos.x + ", " + y + ", " + chunkPos.z + "]: " + message);
     }
 }
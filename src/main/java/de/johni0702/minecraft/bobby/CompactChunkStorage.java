@@ -0,0 +1,227 @@
+package de.johni0702.minecraft.bobby;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores chunks of a single cache directory in {@link CompactRegionFile}s.
+ *
+ * Reads may happen from any thread, writes are expected to come from a single thread at a time per chunk.
+ */
+public class CompactChunkStorage implements Closeable {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final int MAX_OPEN_REGIONS = 256;
+
+    private final Path directory;
+    private final CompactRegionFile.Compression compression;
+    // Regions which we know do not exist are stored as null values, so misses do not have to hit the file system
+    private final Long2ObjectLinkedOpenHashMap<Handle> regions = new Long2ObjectLinkedOpenHashMap<>();
+    private boolean closed;
+
+    public CompactChunkStorage(Path directory, CompactRegionFile.Compression compression) {
+        this.directory = directory;
+        this.compression = compression;
+    }
+
+    public @Nullable byte[] read(int chunkX, int chunkZ) throws IOException {
+        Handle handle = acquireRegion(chunkX >> 5, chunkZ >> 5, false);
+        if (handle == null) {
+            return null;
+        }
+        try {
+            return handle.region.read(chunkX & 31, chunkZ & 31);
+        } finally {
+            release(handle);
+        }
+    }
+
+    public boolean contains(int chunkX, int chunkZ) throws IOException {
+        Handle handle = acquireRegion(chunkX >> 5, chunkZ >> 5, false);
+        if (handle == null) {
+            return false;
+        }
+        try {
+            return handle.region.contains(chunkX & 31, chunkZ & 31);
+        } finally {
+            release(handle);
+        }
+    }
+
+    public void write(int chunkX, int chunkZ, byte[] data) throws IOException {
+        Handle handle = acquireRegion(chunkX >> 5, chunkZ >> 5, true);
+        assert handle != null;
+        try {
+            handle.region.write(chunkX & 31, chunkZ & 31, data, compression);
+            handle.region.compactIfWasteful();
+        } finally {
+            release(handle);
+        }
+    }
+
+    public void delete(int chunkX, int chunkZ) throws IOException {
+        Handle handle = acquireRegion(chunkX >> 5, chunkZ >> 5, false);
+        if (handle == null) {
+            return;
+        }
+        try {
+            handle.region.delete(chunkX & 31, chunkZ & 31);
+            handle.region.compactIfWasteful();
+        } finally {
+            release(handle);
+        }
+    }
+
+    /**
+     * Forgets about the given region and closes it once it is no longer in use, so it can safely be deleted.
+     */
+    public void closeRegion(int regionX, int regionZ) throws IOException {
+        Handle handle;
+        synchronized (regions) {
+            handle = regions.remove(key(regionX, regionZ));
+        }
+        if (handle != null) {
+            retire(handle);
+        }
+    }
+
+    public void flush() throws IOException {
+        List<Handle> handles;
+        synchronized (regions) {
+            handles = new ArrayList<>(regions.size());
+            for (Handle handle : regions.values()) {
+                if (handle != null) {
+                    handle.users++;
+                    handles.add(handle);
+                }
+            }
+        }
+        try {
+            for (Handle handle : handles) {
+                handle.region.flush();
+            }
+        } finally {
+            for (Handle handle : handles) {
+                release(handle);
+            }
+        }
+    }
+
+    /**
+     * Returns the given region, marked as in use until it is passed to {@link #release}, so it does not get closed in
+     * the meantime should it be evicted from the set of open regions by another thread.
+     */
+    private @Nullable Handle acquireRegion(int regionX, int regionZ, boolean create) throws IOException {
+        long key = key(regionX, regionZ);
+        List<Handle> evicted = new ArrayList<>();
+        Handle handle;
+        synchronized (regions) {
+            if (closed) {
+                throw new IOException("Storage has been closed");
+            }
+
+            handle = regions.getAndMoveToLast(key);
+            if (handle != null) {
+                handle.users++;
+            } else if (create || !regions.containsKey(key)) {
+                CompactRegionFile region = CompactRegionFile.open(directory.resolve(CompactRegionFile.getFileName(regionX, regionZ)), create);
+                handle = region != null ? new Handle(region) : null;
+                if (handle != null) {
+                    handle.users++;
+                }
+                regions.put(key, handle);
+
+                // Regions which are currently in use are skipped, otherwise another thread could open a second
+                // instance of the same file while the first one is still being written to
+                ObjectIterator<Long2ObjectMap.Entry<Handle>> iter = regions.long2ObjectEntrySet().fastIterator();
+                while (regions.size() > MAX_OPEN_REGIONS && iter.hasNext()) {
+                    Handle oldest = iter.next().getValue();
+                    if (oldest == null) {
+                        iter.remove();
+                    } else if (oldest.users == 0) {
+                        iter.remove();
+                        evicted.add(oldest);
+                    }
+                }
+            }
+        }
+
+        for (Handle oldest : evicted) {
+            try {
+                oldest.region.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close region file:", e);
+            }
+        }
+
+        return handle;
+    }
+
+    private void release(Handle handle) throws IOException {
+        boolean close;
+        synchronized (regions) {
+            close = --handle.users == 0 && handle.retired;
+        }
+        if (close) {
+            handle.region.close();
+        }
+    }
+
+    /**
+     * Closes the given region, which must already have been removed from [regions], or, if it is still in use, leaves
+     * that to whoever releases it last.
+     */
+    private void retire(Handle handle) throws IOException {
+        boolean close;
+        synchronized (regions) {
+            handle.retired = true;
+            close = handle.users == 0;
+        }
+        if (close) {
+            handle.region.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<Handle> toBeClosed;
+        synchronized (regions) {
+            closed = true;
+            toBeClosed = new ArrayList<>(regions.size());
+            for (Handle handle : regions.values()) {
+                if (handle != null) {
+                    toBeClosed.add(handle);
+                }
+            }
+            regions.clear();
+        }
+        for (Handle handle : toBeClosed) {
+            retire(handle);
+        }
+    }
+
+    private static long key(int regionX, int regionZ) {
+        return (long) regionX & 0xffffffffL | ((long) regionZ & 0xffffffffL) << 32;
+    }
+
+    private static class Handle {
+        private final CompactRegionFile region;
+        // Both guarded by synchronizing on [regions]
+        private int users;
+        private boolean retired;
+
+        private Handle(CompactRegionFile region) {
+            this.region = region;
+        }
+    }
+}
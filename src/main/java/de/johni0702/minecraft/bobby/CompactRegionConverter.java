@@ -0,0 +1,177 @@
+package de.johni0702.minecraft.bobby;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Offline converter from vanilla region files (as used by older Bobby caches) to {@link CompactRegionFile}s.
+ *
+ * Must not be run on a cache which is currently in use by the game. Can be run without the game via
+ * {@code java -cp bobby.jar de.johni0702.minecraft.bobby.CompactRegionConverter [--deflate] [--keep] <.bobby folder>}
+ * which converts all caches found (recursively) in the given folders.
+ *
+ * Chunks are copied as raw NBT, no Minecraft classes are involved.
+ */
+public class CompactRegionConverter {
+    private static final Pattern MCA_FILE_PATTERN = Pattern.compile("^r\\.(-?[0-9]+)\\.(-?[0-9]+)\\.mca$");
+
+    private static final int SECTOR_SIZE = 4096;
+
+    public interface Progress {
+        void onRegionConverted(Path regionFile, int chunks, long bytesBefore, long bytesAfter);
+    }
+
+    public static void main(String[] args) throws IOException {
+        CompactRegionFile.Compression compression = CompactRegionFile.Compression.LZ4;
+        boolean deleteOriginals = true;
+        List<Path> roots = new ArrayList<>();
+        for (String arg : args) {
+            switch (arg) {
+                case "--deflate" -> compression = CompactRegionFile.Compression.DEFLATE;
+                case "--keep" -> deleteOriginals = false;
+                default -> roots.add(Path.of(arg));
+            }
+        }
+        if (roots.isEmpty()) {
+            System.err.println("Usage: CompactRegionConverter [--deflate] [--keep] <directory>...");
+            System.exit(1);
+        }
+
+        long[] totals = new long[2];
+        Progress progress = (regionFile, chunks, bytesBefore, bytesAfter) -> {
+            totals[0] += bytesBefore;
+            totals[1] += bytesAfter;
+            System.out.println(regionFile + ": " + chunks + " chunks, " + bytesBefore / 1024 + " KiB -> " + bytesAfter / 1024 + " KiB");
+        };
+
+        for (Path root : roots) {
+            for (Path directory : findCacheDirectories(root)) {
+                convert(directory, compression, deleteOriginals, progress);
+            }
+        }
+
+        System.out.println("Done: " + totals[0] / 1024 + " KiB -> " + totals[1] / 1024 + " KiB");
+    }
+
+    private static List<Path> findCacheDirectories(Path root) throws IOException {
+        try (Stream<Path> stream = Files.walk(root)) {
+            return stream
+                    .filter(Files::isDirectory)
+                    .filter(CompactRegionConverter::containsRegionFiles)
+                    .toList();
+        }
+    }
+
+    private static boolean containsRegionFiles(Path directory) {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.anyMatch(it -> MCA_FILE_PATTERN.matcher(it.getFileName().toString()).matches());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Converts all region files in the given cache directory and switches the directory over to the compact format.
+     * Chunks which already exist in compact form are newer than their vanilla counterpart and are left untouched.
+     */
+    public static void convert(Path directory, CompactRegionFile.Compression compression, boolean deleteOriginals, Progress progress) throws IOException {
+        List<Path> regionFiles;
+        try (Stream<Path> stream = Files.list(directory)) {
+            regionFiles = stream.filter(it -> MCA_FILE_PATTERN.matcher(it.getFileName().toString()).matches()).toList();
+        }
+
+        // Switch the format first, so if we are interrupted, the game will already read from both
+        CacheFormat format = CacheFormat.read(directory);
+        format.setCompactStorage(true, compression);
+        format.write(directory);
+
+        for (Path regionFile : regionFiles) {
+            Matcher matcher = MCA_FILE_PATTERN.matcher(regionFile.getFileName().toString());
+            if (!matcher.matches()) {
+                continue;
+            }
+            int regionX = Integer.parseInt(matcher.group(1));
+            int regionZ = Integer.parseInt(matcher.group(2));
+            Path targetFile = directory.resolve(CompactRegionFile.getFileName(regionX, regionZ));
+
+            byte[] source = Files.readAllBytes(regionFile);
+            int chunks = 0;
+            try (CompactRegionFile target = CompactRegionFile.open(targetFile, true)) {
+                assert target != null;
+                for (int z = 0; z < 32; z++) {
+                    for (int x = 0; x < 32; x++) {
+                        if (target.contains(x, z)) {
+                            continue;
+                        }
+                        byte[] nbt = readChunk(directory, source, regionX * 32 + x, regionZ * 32 + z, x, z);
+                        if (nbt != null) {
+                            target.write(x, z, nbt, compression);
+                            chunks++;
+                        }
+                    }
+                }
+                target.compactIfWasteful();
+                target.flush();
+            }
+
+            progress.onRegionConverted(regionFile, chunks, source.length, Files.size(targetFile));
+
+            if (deleteOriginals) {
+                Files.delete(regionFile);
+            }
+        }
+    }
+
+    private static byte[] readChunk(Path directory, byte[] region, int chunkX, int chunkZ, int localX, int localZ) throws IOException {
+        if (region.length < SECTOR_SIZE * 2) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(region);
+        int location = buffer.getInt((localX + localZ * 32) * 4);
+        if (location == 0) {
+            return null;
+        }
+        long start = (long) (location >>> 8) * SECTOR_SIZE;
+        if (start + 5 > region.length) {
+            return null;
+        }
+        int length = buffer.getInt((int) start);
+        int compression = region[(int) start + 4] & 0xff;
+
+        InputStream in;
+        if ((compression & 128) != 0) {
+            Path externalFile = directory.resolve("c." + chunkX + "." + chunkZ + ".mcc");
+            if (Files.notExists(externalFile)) {
+                return null;
+            }
+            in = new ByteArrayInputStream(Files.readAllBytes(externalFile));
+            compression &= ~128;
+        } else {
+            if (length <= 1 || start + 4 + length > region.length) {
+                return null;
+            }
+            in = new ByteArrayInputStream(region, (int) start + 5, length - 1);
+        }
+
+        in = switch (compression) {
+            case 1 -> new GZIPInputStream(in);
+            case 2 -> new InflaterInputStream(in);
+            case 3 -> in;
+            default -> throw new IOException("Unknown compression type " + compression + " for chunk " + chunkX + "/" + chunkZ);
+        };
+        try (InputStream stream = in) {
+            return stream.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package de.johni0702.minecraft.bobby;
+
+import de.johni0702.minecraft.bobby.util.Lz4;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Bobby's own region file format. Unlike vanilla region files, which allocate chunks in 4 KiB sectors, chunks are
+ * stored as tightly packed variable-length records which are appended to the end of the file. The header holds the
+ * magic, a version and an index with the offset and length of each of the 32x32 chunks.
+ *
+ * Space of overwritten or deleted records is only reclaimed by {@link #compactIfWasteful()}, which rewrites the whole
+ * file once less than half of it is in use.
+ *
+ * This class deliberately does not depend on any Minecraft classes, so it can also be used by the offline
+ * {@link CompactRegionConverter}.
+ */
+public class CompactRegionFile implements Closeable {
+    public static final Pattern FILE_PATTERN = Pattern.compile("^r\\.(-?[0-9]+)\\.(-?[0-9]+)\\.bcr$");
+
+    private static final int MAGIC = 0x42434652; // "BCFR"
+    private static final int VERSION = 1;
+    private static final int ENTRIES = 32 * 32;
+    private static final int HEADER_SIZE = 8 + ENTRIES * 8;
+    private static final int RECORD_HEADER_SIZE = 5; // compression byte + uncompressed length
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+    // Far larger than any real chunk, merely guards against allocating huge arrays for corrupted records
+    private static final int MAX_RAW_LENGTH = 64 * 1024 * 1024;
+    // Upper bounds of what the respective compression can achieve, anything beyond that must be corrupted
+    private static final int MAX_LZ4_RATIO = 255;
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    public enum Compression {
+        NONE(0, "none"),
+        LZ4(1, "lz4"),
+        DEFLATE(2, "deflate");
+
+        private final int id;
+        private final String name;
+
+        Compression(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static Compression byName(String name, Compression fallback) {
+            for (Compression value : values()) {
+                if (value.name.equals(name)) {
+                    return value;
+                }
+            }
+            return fallback;
+        }
+
+        private static Compression byId(int id) throws IOException {
+            for (Compression value : values()) {
+                if (value.id == id) {
+                    return value;
+                }
+            }
+            throw new IOException("Unknown compression type " + id);
+        }
+    }
+
+    public static String getFileName(int regionX, int regionZ) {
+        return "r." + regionX + "." + regionZ + ".bcr";
+    }
+
+    private final Path path;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int[] offsets = new int[ENTRIES];
+    private final int[] lengths = new int[ENTRIES];
+    private FileChannel channel;
+    private long size;
+    private long liveBytes;
+
+    private CompactRegionFile(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.size = channel.size();
+
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.position(0);
+            writeFully(channel, header, 0);
+            size = HEADER_SIZE;
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a compact region file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + " has unsupported version " + version);
+            }
+            for (int i = 0; i < ENTRIES; i++) {
+                offsets[i] = header.getInt();
+                lengths[i] = header.getInt();
+                if (offsets[i] != 0 && (long) offsets[i] + lengths[i] > size) {
+                    // Most likely a crash while appending, the chunk is lost
+                    offsets[i] = 0;
+                    lengths[i] = 0;
+                }
+                liveBytes += lengths[i];
+            }
+        }
+    }
+
+    public static @Nullable CompactRegionFile open(Path path, boolean create) throws IOException {
+        if (!create && Files.notExists(path)) {
+            return null;
+        }
+        FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new CompactRegionFile(path, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public boolean contains(int localX, int localZ) {
+        lock.readLock().lock();
+        try {
+            return offsets[index(localX, localZ)] != 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes the given chunk occupies on disk, or 0 if it is not present
+     */
+    public int getStoredLength(int localX, int localZ) {
+        lock.readLock().lock();
+        try {
+            return lengths[index(localX, localZ)];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public @Nullable byte[] read(int localX, int localZ) throws IOException {
+        ByteBuffer record;
+        lock.readLock().lock();
+        try {
+            int index = index(localX, localZ);
+            int offset = offsets[index];
+            if (offset == 0) {
+                return null;
+            }
+            record = ByteBuffer.allocate(lengths[index]);
+            readFully(channel, record, offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+        record.flip();
+        if (record.remaining() < RECORD_HEADER_SIZE) {
+            throw new IOException("Corrupted record, too short");
+        }
+
+        Compression compression = Compression.byId(record.get() & 0xff);
+        int rawLength = record.getInt();
+        byte[] compressed = record.array();
+        int compressedOffset = RECORD_HEADER_SIZE;
+        int compressedLength = compressed.length - RECORD_HEADER_SIZE;
+        return decompress(compression, compressed, compressedOffset, compressedLength, rawLength);
+    }
+
+    public void write(int localX, int localZ, byte[] data, Compression compression) throws IOException {
+        byte[] record = compress(compression, data);
+
+        lock.writeLock().lock();
+        try {
+            int index = index(localX, localZ);
+            long offset = size;
+            if (offset + record.length > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large");
+            }
+            // Data first, then the index entry, so a crash in between at worst loses the new version of this chunk
+            writeFully(channel, ByteBuffer.wrap(record), offset);
+            size += record.length;
+            liveBytes += record.length - lengths[index];
+            setEntry(index, (int) offset, record.length);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void delete(int localX, int localZ) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int index = index(localX, localZ);
+            if (offsets[index] == 0) {
+                return;
+            }
+            liveBytes -= lengths[index];
+            setEntry(index, 0, 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.readLock().lock();
+        try {
+            return liveBytes == 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the file without any unused space if at least half of it is unused.
+     */
+    public void compactIfWasteful() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (size < MIN_COMPACTION_SIZE || liveBytes * 2 > size - HEADER_SIZE) {
+                return;
+            }
+            compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the file without any unused space.
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (liveBytes == size - HEADER_SIZE) {
+                return;
+            }
+
+            Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+            int[] newOffsets = new int[ENTRIES];
+            // Only close the old channel once the new file is in place, so we can keep using it if anything goes wrong
+            try {
+                try (FileChannel out = FileChannel.open(tmpPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long position = HEADER_SIZE;
+                    for (int i = 0; i < ENTRIES; i++) {
+                        if (offsets[i] == 0) {
+                            continue;
+                        }
+                        ByteBuffer record = ByteBuffer.allocate(lengths[i]);
+                        readFully(channel, record, offsets[i]);
+                        record.flip();
+                        writeFully(out, record, position);
+                        newOffsets[i] = (int) position;
+                        position += lengths[i];
+                    }
+
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.putInt(MAGIC);
+                    header.putInt(VERSION);
+                    for (int i = 0; i < ENTRIES; i++) {
+                        header.putInt(newOffsets[i]);
+                        header.putInt(lengths[i]);
+                    }
+                    header.flip();
+                    writeFully(out, header, 0);
+                    out.force(true);
+                }
+                Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.deleteIfExists(tmpPath);
+                throw e;
+            }
+            FileChannel oldChannel = channel;
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            System.arraycopy(newOffsets, 0, offsets, 0, ENTRIES);
+            size = channel.size();
+            oldChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        lock.readLock().lock();
+        try {
+            channel.force(false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void setEntry(int index, int offset, int length) throws IOException {
+        offsets[index] = offset;
+        lengths[index] = length;
+        ByteBuffer entry = ByteBuffer.allocate(8);
+        entry.putInt(offset);
+        entry.putInt(length);
+        entry.flip();
+        writeFully(channel, entry, 8 + index * 8L);
+    }
+
+    private static int index(int localX, int localZ) {
+        return (localX & 31) + (localZ & 31) * 32;
+    }
+
+    private static byte[] compress(Compression compression, byte[] data) {
+        byte[] record;
+        int length;
+        switch (compression) {
+            case LZ4 -> {
+                record = new byte[RECORD_HEADER_SIZE + Lz4.maxCompressedLength(data.length)];
+                length = RECORD_HEADER_SIZE + Lz4.compress(data, 0, data.length, record, RECORD_HEADER_SIZE);
+            }
+            case DEFLATE -> {
+                Deflater deflater = new Deflater();
+                try {
+                    deflater.setInput(data);
+                    deflater.finish();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + RECORD_HEADER_SIZE);
+                    out.write(new byte[RECORD_HEADER_SIZE], 0, RECORD_HEADER_SIZE);
+                    byte[] buf = new byte[8192];
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(buf);
+                        out.write(buf, 0, n);
+                    }
+                    record = out.toByteArray();
+                    length = record.length;
+                } finally {
+                    deflater.end();
+                }
+            }
+            default -> {
+                record = new byte[RECORD_HEADER_SIZE + data.length];
+                System.arraycopy(data, 0, record, RECORD_HEADER_SIZE, data.length);
+                length = record.length;
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(record, 0, RECORD_HEADER_SIZE);
+        header.put((byte) compression.id);
+        header.putInt(data.length);
+
+        if (length == record.length) {
+            return record;
+        }
+        byte[] trimmed = new byte[length];
+        System.arraycopy(record, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    private static byte[] decompress(Compression compression, byte[] src, int offset, int length, int rawLength) throws IOException {
+        // Validate the stored length before trusting it with an allocation
+        if (rawLength < 0 || rawLength > MAX_RAW_LENGTH) {
+            throw new IOException("Corrupted record, invalid length " + rawLength);
+        }
+        int maxRatio = switch (compression) {
+            case LZ4 -> MAX_LZ4_RATIO;
+            case DEFLATE -> MAX_DEFLATE_RATIO;
+            default -> 1;
+        };
+        if (rawLength > (long) length * maxRatio) {
+            throw new IOException("Corrupted record, length " + rawLength + " cannot result from " + length + " bytes");
+        }
+        byte[] result = new byte[rawLength];
+        switch (compression) {
+            case LZ4 -> Lz4.decompress(src, offset, length, result, 0, rawLength);
+            case DEFLATE -> {
+                Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(src, offset, length);
+                    int n = 0;
+                    while (n < rawLength && !inflater.finished()) {
+                        int read = inflater.inflate(result, n, rawLength - n);
+                        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        n += read;
+                    }
+                    if (n != rawLength) {
+                        throw new IOException("Truncated deflate record");
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException(e);
+                } finally {
+                    inflater.end();
+                }
+            }
+            default -> {
+                if (length != rawLength) {
+                    throw new IOException("Corrupted uncompressed record");
+                }
+                System.arraycopy(src, offset, result, 0, rawLength);
+            }
+        }
+        return result;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += n;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -16,6 +16,8 @@ import net.minecraft.world.chunk.WorldChunk;
 import net.minecraft.world.chunk.light.LightingProvider;
 import net.minecraft.world.tick.ChunkTickScheduler;
 
+import java.util.Map;
+
 // Fake chunks are of this subclass, primarily so we have an easy way of identifying them.
 public class FakeChunk extends WorldChunk {
 
@@ -25,6 +27,15 @@ public class FakeChunk extends WorldChunk {
     public ChunkNibbleArray[] blockLight;
     public ChunkNibbleArray[] skyLight;
     public NbtList serializedBlockEntities;
+    // Whether only the sections around the surface have been loaded, see ChunkSerializer.deserialize
+    public boolean lod;
+    // Estimated size while it is loaded, see FakeChunkManager.load
+    public long retainedSize;
+
+    // Rough size of everything we do not explicitly account for (object headers, maps, etc.)
+    private static final long CHUNK_OVERHEAD = 2048;
+    // We do not want to walk the NBT just to estimate its size, most block entities are small
+    private static final long BLOCK_ENTITY_SIZE = 256;
 
     public FakeChunk(World world, ChunkPos pos, ChunkSection[] sections) {
         super(world, pos, UpgradeData.NO_UPGRADE_DATA, new ChunkTickScheduler<>(), new ChunkTickScheduler<>(), 0L, sections, null, null);
@@ -66,4 +77,71 @@ public class FakeChunk extends WorldChunk {
     public void setHeightmap(Heightmap.Type type, Heightmap heightmap) {
         this.heightmaps.put(type, heightmap);
     }
+
+    /**
+     * Estimates how much memory this chunk keeps alive: block and biome palettes, light arrays, heightmaps and block
+     * entities (both their NBT and, if loaded, the block entities themselves).
+     */
+    public long estimateRetainedSize() {
+        long size = CHUNK_OVERHEAD;
+        for (ChunkSection section : getSectionArray()) {
+            size += section.getPacketSize();
+        }
+        size += estimateSize(blockLight);
+        size += estimateSize(skyLight);
+        for (Map.Entry<Heightmap.Type, Heightmap> entry : getHeightmaps()) {
+            size += entry.getValue().asLongArray().length * 8L;
+        }
+        if (serializedBlockEntities != null) {
+            size += serializedBlockEntities.size() * BLOCK_ENTITY_SIZE;
+        }
+        size += getBlockEntities().size() * BLOCK_ENTITY_SIZE;
+        return size;
+    }
+
+    /**
+     * Estimates how much less memory this chunk would keep alive if it was loaded in reduced detail instead, based on
+     * the sections which would be replaced by stone, see ChunkSerializer.deserialize.
+     */
+    public long estimateLodSavings() {
+        if (lod) {
+            return 0;
+        }
+        int minSectionIndex = ChunkSerializer.getLodMinSectionIndex(this);
+        ChunkSection[] sections = getSectionArray();
+        long size = 0;
+        // The stone sections replacing them are a single palette entry, not worth accounting for
+        for (int i = 0; i < minSectionIndex; i++) {
+            size += sections[i].getPacketSize();
+        }
+        // Light arrays start one section below the world, all of the replaced ones are shared dark sections afterwards
+        size += estimateSize(blockLight, minSectionIndex + 1);
+        size += estimateSize(skyLight, minSectionIndex + 1);
+        // Block entities are not loaded at all
+        size += getBlockEntities().size() * BLOCK_ENTITY_SIZE;
+        return size;
+    }
+
+    private static long estimateSize(ChunkNibbleArray[] light) {
+        return light == null ? 0 : estimateSize(light, light.length);
+    }
+
+    private static long estimateSize(ChunkNibbleArray[] light, int end) {
+        if (light == null) {
+            return 0;
+        }
+        long size = 0;
+        ChunkNibbleArray previous = null;
+        for (int i = 0; i < end; i++) {
+            ChunkNibbleArray array = light[i];
+            // Inferred sections are shared between consecutive sections, only count them once. The completely dark
+            // and lit sections are shared between all chunks, so they are not kept alive by any one of them.
+            if (array != null && array != previous && !array.isUninitialized()
+                    && array != ChunkSerializer.COMPLETELY_DARK && array != ChunkSerializer.COMPLETELY_LIT) {
+                size += 2048;
+            }
+            previous = array;
+        }
+        return size;
+    }
 }
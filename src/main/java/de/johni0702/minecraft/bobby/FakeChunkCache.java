@@ -0,0 +1,100 @@
+package de.johni0702.minecraft.bobby;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps recently unloaded fake chunks around in decoded form, so when the player returns to an area shortly after
+ * leaving it, the chunks can be re-added without reading and deserializing them again.
+ *
+ * Entries are evicted in least-recently-unloaded order once their estimated size exceeds the configured budget.
+ * Only accessed from the main thread.
+ */
+public class FakeChunkCache {
+    private final Long2ObjectLinkedOpenHashMap<Entry> entries = new Long2ObjectLinkedOpenHashMap<>();
+    private long retainedBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Adds the given chunk, which must have been fully populated (i.e. loaded via {@link ChunkSerializer}) and must no
+     * longer be in use by the world.
+     */
+    public void put(long pos, FakeChunk chunk) {
+        long maxBytes = BobbyConfig.getDecodedCacheSizeMiB() * 1024L * 1024L;
+        if (maxBytes <= 0 || chunk.blockLight == null || chunk.skyLight == null || chunk.serializedBlockEntities == null) {
+            invalidate(pos);
+            return;
+        }
+
+        Entry entry = new Entry(chunk, chunk.estimateRetainedSize());
+        Entry previous = entries.putAndMoveToLast(pos, entry);
+        if (previous != null) {
+            retainedBytes -= previous.size;
+        }
+        retainedBytes += entry.size;
+
+        while (retainedBytes > maxBytes && !entries.isEmpty()) {
+            retainedBytes -= entries.removeFirst().size;
+        }
+    }
+
+    /**
+     * Removes the chunk at the given position from the cache and returns it, if there is one.
+     */
+    public @Nullable FakeChunk take(long pos) {
+        Entry entry = entries.remove(pos);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        retainedBytes -= entry.size;
+        return entry.chunk;
+    }
+
+    public boolean contains(long pos) {
+        return entries.containsKey(pos);
+    }
+
+    /**
+     * Drops the chunk at the given position, e.g. because a real chunk has been received in its place.
+     */
+    public void invalidate(long pos) {
+        Entry entry = entries.remove(pos);
+        if (entry != null) {
+            retainedBytes -= entry.size;
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        retainedBytes = 0;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    private static class Entry {
+        private final FakeChunk chunk;
+        private final long size;
+
+        private Entry(FakeChunk chunk, long size) {
+            this.chunk = chunk;
+            this.size = size;
+        }
+    }
+}
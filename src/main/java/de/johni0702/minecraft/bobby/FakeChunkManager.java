@@ -4,15 +4,23 @@ import de.johni0702.minecraft.bobby.ext.ChunkLightProviderExt;
 import de.johni0702.minecraft.bobby.ext.ClientChunkManagerExt;
 import de.johni0702.minecraft.bobby.mixin.BiomeAccessAccessor;
 import de.johni0702.minecraft.bobby.mixin.ClientWorldAccessor;
+import de.johni0702.minecraft.bobby.util.LaneExecutor;
+import de.johni0702.minecraft.bobby.util.SingleWriterLong2ObjectMap;
+import de.johni0702.minecraft.bobby.util.UnloadQueue;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMaps;
 import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongComparator;
+import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.render.Camera;
 import net.minecraft.client.network.ClientPlayNetworkHandler;
 import net.minecraft.client.network.ClientPlayerEntity;
 import net.minecraft.client.network.ServerInfo;
@@ -24,6 +32,7 @@ import net.minecraft.util.Identifier;
 import net.minecraft.util.Util;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.registry.RegistryKey;
 import net.minecraft.world.LightType;
 import net.minecraft.world.World;
@@ -32,56 +41,134 @@ import net.minecraft.world.chunk.WorldChunk;
 import net.minecraft.world.chunk.light.LightingProvider;
 import net.minecraft.world.level.storage.LevelStorage;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Deque;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public class FakeChunkManager {
+    private static final Logger LOGGER = LogManager.getLogger();
     private static final String FALLBACK_LEVEL_NAME = "bobby-fallback";
     private static final MinecraftClient client = MinecraftClient.getInstance();
+    private static final float MAX_DIRECTION_PENALTY = 16;
+    // How far ahead (in ticks) we extrapolate the player's movement to determine which chunks to prefetch
+    private static final int PREFETCH_TICKS = 40;
+    // Maximum number of prefetched chunks (loading or done) which are not yet in view distance
+    private static final int MAX_PREFETCHED = 512;
+    // Prefetched jobs always queue behind regular ones
+    private static final int PREFETCH_PRIORITY_OFFSET = Integer.MAX_VALUE / 2;
+    // Maximum number of saves waiting for room in the save executor, see [deferredSaves]
+    private static final int MAX_DEFERRED_SAVES = 4096;
+    // Maximum time a blocking update waits for outstanding loading jobs
+    private static final long MAX_BLOCKING_WAIT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // Once over the memory budget, we shrink down to this share of it (in percent), but only restore chunks while we
+    // expect to stay below the lower one, so errors in our estimates do not immediately push us over it again
+    private static final int BUDGET_SHRINK_TARGET = 90;
+    private static final int BUDGET_RESTORE_LIMIT = 75;
+    // How long the memory budget leaves a position alone after shrinking or restoring it, unless we are above the limit
+    private static final long BUDGET_COOLDOWN_MILLIS = 30_000;
 
     private final ClientWorld world;
     private final ClientChunkManager clientChunkManager;
     private final ClientChunkManagerExt clientChunkManagerExt;
     private final FakeChunkStorage storage;
     private final List<FakeChunkStorage> storages;
+    private final ChunkSerializer.Context serializerContext;
     private int ticksSinceLastSave;
 
-    private final Long2ObjectMap<WorldChunk> fakeChunks = Long2ObjectMaps.synchronize(new Long2ObjectOpenHashMap<>());
+    // Only modified on the main thread, but read from all sorts of threads (e.g. chunk builders), which should not
+    // have to fight over a lock for every single block lookup
+    private final SingleWriterLong2ObjectMap<WorldChunk> fakeChunks = new SingleWriterLong2ObjectMap<>();
+    // Recently unloaded fake chunks (and copies of real chunks which were unloaded outside of our view distance), so we
+    // do not need to go to storage when the player comes back
+    private final FakeChunkCache decodedCache = new FakeChunkCache();
+    // Sum of the estimated sizes of all [fakeChunks], see [enforceMemoryBudget]
+    private long loadedBytes;
+    // Chunks in view distance which had to be unloaded to stay within the memory budget, and will be loaded again (in
+    // reduced detail) once there is room, see [enforceMemoryBudget]
+    private final Long2ObjectMap<ChunkSizes> evictedChunks = new Long2ObjectOpenHashMap<>();
+    // Chunks which have been re-loaded in reduced detail to stay within the memory budget. They are not upgraded back
+    // to full detail by [upgradeLodChunk] until there is room again, see [restoreEvictedChunks].
+    private final Long2ObjectMap<ChunkSizes> downgradedChunks = new Long2ObjectOpenHashMap<>();
+    // Time until which [enforceMemoryBudget] leaves each position alone after it last shrunk or restored it
+    private final Long2LongMap budgetCooldowns = new Long2LongOpenHashMap();
     private final VisibleChunksTracker chunkTracker = new VisibleChunksTracker();
-    private final Long2LongMap toBeUnloaded = new Long2LongOpenHashMap();
-    // Contains chunks in order to be unloaded. We keep the chunk and time so we can cross-reference it with
-    // [toBeUnloaded] to see if the entry has since been removed / the time reset. This way we do not need
-    // to remove entries from the middle of the queue.
-    private final Deque<Pair<Long, Long>> unloadQueue = new ArrayDeque<>();
+    // Re-used between updates, see [VisibleChunksTracker.updateAndCollect]
+    private final LongArrayList unloadedChunks = new LongArrayList();
+    private final LongArrayList loadedChunks = new LongArrayList();
+    // Chunks which are outside of view distance, in the order they are to be unloaded, with the time they left it
+    private final UnloadQueue toBeUnloaded = new UnloadQueue();
 
     // The api for loading chunks unfortunately does not handle cancellation, so we utilize a separate thread pool to
     // ensure only a small number of tasks are active at any one time, and all others can still be cancelled before
     // they are submitted.
     // The size of the pool must be sufficiently large such that there is always at least one query operation
     // running, as otherwise the storage io worker will start writing chunks which slows everything down to a crawl.
-    private static final ExecutorService loadExecutor = Executors.newFixedThreadPool(8, new DefaultThreadFactory("bobby-loading", true));
+    // Queued jobs are ordered by distance to the player (optionally weighted by view direction, see [getLoadPriority]),
+    // and re-ordered whenever the player moves to a different chunk or turns around (see [reprioritizeLoadingJobs]), so
+    // we always load the most relevant chunks first, even when moving quickly.
+    private static final PriorityBlockingQueue<Runnable> loadQueue = new PriorityBlockingQueue<>(64, LoadingJob.BY_PRIORITY);
+    private static final ExecutorService loadExecutor = new ThreadPoolExecutor(8, 8, 0, TimeUnit.MILLISECONDS, loadQueue, new DefaultThreadFactory("bobby-loading", true));
     private final Long2ObjectMap<LoadingJob> loadingJobs = new Long2ObjectLinkedOpenHashMap<>();
+    // Jobs which have finished loading, in order of completion, so the main thread only has to look at those (and can
+    // block on it when it needs to wait for all jobs)
+    private final LinkedBlockingQueue<LoadingJob> completedJobs = new LinkedBlockingQueue<>();
+    // Jobs for chunks which are not yet in view distance but likely will be soon given the player's current velocity.
+    // Once a chunk enters view distance, its job is moved over to [loadingJobs].
+    private final Long2ObjectMap<LoadingJob> prefetchJobs = new Long2ObjectOpenHashMap<>();
+    // Tracks the view distance around the predicted position, so only chunks entering it have to be looked at
+    private final VisibleChunksTracker prefetchTracker = new VisibleChunksTracker();
+    private final LongArrayList prefetchEnteringChunks = new LongArrayList();
+    private int loadingCenterX = Integer.MIN_VALUE;
+    private int loadingCenterZ = Integer.MIN_VALUE;
+    private float loadingLookX;
+    private float loadingLookZ;
+    private float loadingDirectionWeight;
+    // Job whose chunk is currently being finalized on the main thread, see [ChunkSerializer.Finalizer]. It stays in
+    // [loadingJobs] until it is done, so it can be cancelled like any other job.
+    private LoadingJob finalizingJob;
 
-    // Executor for serialization and saving. Single-threaded so we do not have to worry about races between multiple saves for the same chunk.
-    private static final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("bobby-saving", true));
+    // Executor for serialization and saving. Saves for the same chunk always go to the same lane, so we do not have to
+    // worry about races between multiple saves for the same chunk, while different chunks can be serialized in parallel.
+    // The number of queued saves is bounded, so mass unloads cannot pile up an unbounded amount of serialization work.
+    private static final LaneExecutor saveExecutor = new LaneExecutor("bobby-saving",
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 1024);
+    // Latest not-yet-serialized snapshot for each chunk which is queued for saving. If a chunk is saved again before
+    // its previous snapshot has been picked up by the save executor, we simply replace the snapshot instead of queuing
+    // another task, so only the newest state is ever serialized and written.
+    private final Long2ObjectMap<PendingSave> pendingSaves = new Long2ObjectOpenHashMap<>();
+    // Chunks in [pendingSaves] whose task was rejected because the save executor was full. We do not want to block the
+    // main thread waiting for it, so instead we retry submitting them on every update. Further saves of the same chunks
+    // are coalesced into their pending snapshot as usual. Only accessed from the main thread.
+    // Each one keeps a snapshot alive, so once there are more than [MAX_DEFERRED_SAVES], we do wait for the executor
+    // after all, rather than let memory usage grow without bound.
+    private final LongArrayFIFOQueue deferredSaves = new LongArrayFIFOQueue();
+    private final AtomicLong savesQueued = new AtomicLong();
+    private final AtomicLong savesCoalesced = new AtomicLong();
+    private final AtomicLong savesUnchanged = new AtomicLong();
 
     public FakeChunkManager(ClientWorld world, ClientChunkManager clientChunkManager) {
         this.world = world;
         this.clientChunkManager = clientChunkManager;
         this.clientChunkManagerExt = (ClientChunkManagerExt) clientChunkManager;
+        this.serializerContext = new ChunkSerializer.Context(world);
 
         long seedHash = ((BiomeAccessAccessor) world.getBiomeAccess()).getSeed();
         RegistryKey<World> worldKey = world.getRegistryKey();
@@ -136,6 +223,8 @@ public class FakeChunkManager {
             ticksSinceLastSave = 0;
         }
 
+        submitDeferredSaves();
+
         ClientPlayerEntity player = client.player;
         if (player == null) {
             return;
@@ -147,68 +236,51 @@ public class FakeChunkManager {
         ChunkPos playerChunkPos = player.getChunkPos();
         int newCenterX =  playerChunkPos.x;
         int newCenterZ = playerChunkPos.z;
-        chunkTracker.update(newCenterX, newCenterZ, newViewDistance, chunkPos -> {
+        boolean centerChanged = newCenterX != loadingCenterX || newCenterZ != loadingCenterZ;
+        boolean reprioritize = updateLoadingCenter(newCenterX, newCenterZ);
+        chunkTracker.setCircular(BobbyConfig.isCircularViewDistance());
+        chunkTracker.updateAndCollect(newCenterX, newCenterZ, newViewDistance, unloadedChunks, loadedChunks);
+        for (int i = 0; i < unloadedChunks.size(); i++) {
+            long chunkPos = unloadedChunks.getLong(i);
             // Chunk is now outside view distance, can be unloaded / cancelled
             cancelLoad(chunkPos);
-            toBeUnloaded.put(chunkPos, time);
-            unloadQueue.add(Pair.of(chunkPos, time));
-        }, chunkPos -> {
+            toBeUnloaded.add(chunkPos, time);
+        }
+        for (int i = 0; i < loadedChunks.size(); i++) {
             // Chunk is now inside view distance, load it
-            int x = ChunkPos.getPackedX(chunkPos);
-            int z = ChunkPos.getPackedZ(chunkPos);
-
-            // We want this chunk, so don't unload it if it's still here
-            toBeUnloaded.remove(chunkPos);
-            // Not removing it from [unloadQueue], we check [toBeUnloaded] when we poll it.
+            startLoading(loadedChunks.getLong(i), newJobs);
+        }
+        unloadedChunks.clear();
+        loadedChunks.clear();
 
-            // If there already is a chunk loaded, there's nothing to do
-            if (clientChunkManager.getChunk(x, z, ChunkStatus.FULL, false) != null) {
-                return;
-            }
+        if (reprioritize) {
+            reprioritizeLoadingJobs();
+        }
 
-            // All good, load it
-            int distanceX = Math.abs(x - newCenterX);
-            int distanceZ = Math.abs(z - newCenterZ);
-            int distanceSquared = distanceX * distanceX + distanceZ * distanceZ;
-            newJobs.add(new LoadingJob(x, z, distanceSquared));
-        });
+        if (centerChanged) {
+            upgradeLodChunks();
+        }
 
         if (!newJobs.isEmpty()) {
-            newJobs.sort(LoadingJob.BY_DISTANCE);
+            newJobs.forEach(job -> job.updatePriority());
+            newJobs.sort(LoadingJob.BY_PRIORITY);
             newJobs.forEach(job -> {
                 loadingJobs.put(ChunkPos.toLong(job.x, job.z), job);
                 loadExecutor.execute(job);
             });
         }
 
+        if (newViewDistance > 0) {
+            updatePrefetch(player, newCenterX, newCenterZ, newViewDistance);
+        }
+
+        enforceMemoryBudget(newCenterX, newCenterZ, time);
+
         // Anything remaining in the set is no longer needed and can now be unloaded
         long unloadTime = time - BobbyConfig.getUnloadDelaySecs() * 1000L;
         int countSinceLastThrottleCheck = 0;
-        while (true) {
-            Pair<Long, Long> next = unloadQueue.pollFirst();
-            if (next == null) {
-                break;
-            }
-            long chunkPos = next.getLeft();
-            long queuedTime = next.getRight();
-
-            if (queuedTime > unloadTime) {
-                // Unload is still being delayed, put the entry back into the queue
-                // and be done for this update.
-                unloadQueue.addFirst(next);
-                break;
-            }
-
-            long actualQueuedTime = toBeUnloaded.remove(chunkPos);
-            if (actualQueuedTime != queuedTime) {
-                // The chunk has either been un-queued or re-queued.
-                if (actualQueuedTime != 0) {
-                    // If it was re-queued, put it back in the map.
-                    toBeUnloaded.put(chunkPos, actualQueuedTime);
-                }
-                // Either way, skip it for now and go to the next entry.
-                continue;
-            }
+        while (toBeUnloaded.firstTime() <= unloadTime) {
+            long chunkPos = toBeUnloaded.removeFirst();
 
             // This chunk is due for unloading
             unload(ChunkPos.getPackedX(chunkPos), ChunkPos.getPackedZ(chunkPos), false);
@@ -221,40 +293,297 @@ public class FakeChunkManager {
             }
         }
 
-        ObjectIterator<LoadingJob> loadingJobsIter = this.loadingJobs.values().iterator();
-        jobs: while (loadingJobsIter.hasNext()) {
-            LoadingJob loadingJob = loadingJobsIter.next();
-
-            //noinspection OptionalAssignedToNull
-            while (loadingJob.result == null) {
-                // Still loading, should we wait for it?
-                if (blocking) {
-                    try {
-                        // This code path is not the default one, it doesn't need super high performance, and having the
-                        // workers notify the main thread just for it is probably not worth it.
-                        //noinspection BusyWait
-                        Thread.sleep(1);
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                } else {
-                    continue jobs;
+        // Each job signals completion even if it fails, so this is merely a safety net in case one got lost
+        long blockingDeadline = System.nanoTime() + MAX_BLOCKING_WAIT_NANOS;
+        while (true) {
+            LoadingJob loadingJob = finalizingJob;
+            if (loadingJob != null) {
+                // Resume where we left off in the previous update
+            } else if (blocking && !loadingJobs.isEmpty()) {
+                long remaining = blockingDeadline - System.nanoTime();
+                if (remaining <= 0) {
+                    LOGGER.warn("Gave up waiting for {} fake chunks to load: {}", loadingJobs.size(),
+                            loadingJobs.values().stream().limit(10).map(it -> it.x + "/" + it.z).collect(Collectors.joining(", ")));
+                    break;
                 }
+                try {
+                    loadingJob = completedJobs.poll(remaining, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                loadingJob = completedJobs.poll();
+            }
+            if (loadingJob == null) {
+                if (blocking && !loadingJobs.isEmpty()) {
+                    continue; // still waiting for some, until the deadline has passed
+                }
+                break;
             }
 
-            // Done loading
-            loadingJobsIter.remove();
+            long chunkPos = ChunkPos.toLong(loadingJob.x, loadingJob.z);
+            if (loadingJobs.get(chunkPos) != loadingJob) {
+                // Cancelled, superseded or a prefetch job which is not yet in view distance
+                continue;
+            }
 
             client.getProfiler().push("loadFakeChunk");
-            loadingJob.complete();
+            boolean done = loadingJob.complete(shouldKeepTicking);
             client.getProfiler().pop();
 
+            if (!done) {
+                // Out of time, continue with this one in the next update
+                finalizingJob = loadingJob;
+                break;
+            }
+
+            // Done loading
+            finalizingJob = null;
+            loadingJobs.remove(chunkPos);
+
+            // We may have come closer while it was loading
+            upgradeLodChunk(chunkPos);
+
             if (!shouldKeepTicking.getAsBoolean()) {
                 break;
             }
         }
     }
 
+    private void startLoading(long chunkPos, List<LoadingJob> newJobs) {
+        int x = ChunkPos.getPackedX(chunkPos);
+        int z = ChunkPos.getPackedZ(chunkPos);
+
+        // We want this chunk, so don't unload it if it's still here
+        toBeUnloaded.remove(chunkPos);
+
+        LoadingJob prefetched = prefetchJobs.remove(chunkPos);
+
+        // If there already is a chunk loaded, there's nothing to do
+        if (clientChunkManager.getChunk(x, z, ChunkStatus.FULL, false) != null) {
+            if (prefetched != null) {
+                prefetched.cancelled = true;
+            }
+            return;
+        }
+
+        // If we have still got it in memory, we only need to finalize it. This takes precedence over any prefetched
+        // read, since the cached copy may well be newer (e.g. if the chunk was saved after the prefetch started).
+        FakeChunk cached = decodedCache.take(chunkPos);
+        if (cached != null && cached.lod && !isLodDistance(x, z)) {
+            cached = null; // too close by now, needs to be loaded in full detail
+        }
+        if (cached != null) {
+            if (prefetched != null) {
+                prefetched.cancelled = true;
+            }
+            LoadingJob job = new LoadingJob(x, z);
+            job.result = Optional.of(ChunkSerializer.reuse(cached));
+            loadingJobs.put(chunkPos, job);
+            completedJobs.add(job);
+            return;
+        }
+
+        // If we already started loading it in advance, continue with that one (it will be re-prioritized below,
+        // since our center must have changed for this chunk to become visible)
+        if (prefetched != null) {
+            prefetched.prefetch = false;
+            loadingJobs.put(chunkPos, prefetched);
+            //noinspection OptionalAssignedToNull
+            if (prefetched.result != null) {
+                // Already done, its completion signal has been ignored while it was still a prefetch job
+                completedJobs.add(prefetched);
+            }
+            return;
+        }
+
+        // All good, load it
+        newJobs.add(new LoadingJob(x, z));
+    }
+
+    /**
+     * Extrapolates the player's movement and starts loading chunks which will enter view distance soon, so by the time
+     * they do, they are ready to be added to the world right away.
+     */
+    private void updatePrefetch(ClientPlayerEntity player, int centerX, int centerZ, int viewDistance) {
+        double predictedX = player.getX() + (player.getX() - player.prevX) * PREFETCH_TICKS;
+        double predictedZ = player.getZ() + (player.getZ() - player.prevZ) * PREFETCH_TICKS;
+        int predictedCenterX = ChunkSectionPos.getSectionCoord(MathHelper.floor(predictedX));
+        int predictedCenterZ = ChunkSectionPos.getSectionCoord(MathHelper.floor(predictedZ));
+        prefetchTracker.setCircular(BobbyConfig.isCircularViewDistance());
+        if (prefetchTracker.isCenteredAt(predictedCenterX, predictedCenterZ, viewDistance)) {
+            return;
+        }
+        prefetchTracker.updateAndCollect(predictedCenterX, predictedCenterZ, viewDistance, null, prefetchEnteringChunks);
+
+        // Drop everything which is neither in the current nor the predicted view distance any more
+        ObjectIterator<Long2ObjectMap.Entry<LoadingJob>> iter = prefetchJobs.long2ObjectEntrySet().iterator();
+        while (iter.hasNext()) {
+            LoadingJob job = iter.next().getValue();
+            if (!isWithinSquare(job.x, job.z, predictedCenterX, predictedCenterZ, viewDistance + 1)
+                    && !isWithinSquare(job.x, job.z, centerX, centerZ, viewDistance + 1)) {
+                job.cancelled = true;
+                iter.remove();
+            }
+        }
+
+        if (predictedCenterX == centerX && predictedCenterZ == centerZ) {
+            prefetchEnteringChunks.clear();
+            return; // not moving (fast enough)
+        }
+
+        // Only chunks which have just entered the predicted view distance can be new, everything else has been
+        // considered on a previous update already
+        List<LoadingJob> newJobs = new ArrayList<>();
+        for (int i = 0; i < prefetchEnteringChunks.size() && prefetchJobs.size() + newJobs.size() < MAX_PREFETCHED; i++) {
+            long chunkPos = prefetchEnteringChunks.getLong(i);
+            int x = ChunkPos.getPackedX(chunkPos);
+            int z = ChunkPos.getPackedZ(chunkPos);
+            if (chunkTracker.isInViewDistance(x, z)) {
+                continue;
+            }
+            if (prefetchJobs.containsKey(chunkPos) || fakeChunks.containsKey(chunkPos) || decodedCache.contains(chunkPos)) {
+                continue;
+            }
+            if (clientChunkManager.getChunk(x, z, ChunkStatus.FULL, false) != null) {
+                continue;
+            }
+            LoadingJob job = new LoadingJob(x, z);
+            job.prefetch = true;
+            job.updatePriority();
+            newJobs.add(job);
+        }
+        prefetchEnteringChunks.clear();
+
+        newJobs.sort(LoadingJob.BY_PRIORITY);
+        for (LoadingJob job : newJobs) {
+            prefetchJobs.put(ChunkPos.toLong(job.x, job.z), job);
+            loadExecutor.execute(job);
+        }
+    }
+
+    private static boolean isWithinSquare(int x, int z, int centerX, int centerZ, int radius) {
+        return Math.abs(x - centerX) <= radius && Math.abs(z - centerZ) <= radius;
+    }
+
+    /**
+     * Updates the center (and view direction) against which load priorities are computed.
+     *
+     * @return whether it has changed enough that queued jobs should be re-prioritized
+     */
+    private boolean updateLoadingCenter(int centerX, int centerZ) {
+        float lookX = 0;
+        float lookZ = 0;
+        float directionWeight = 0;
+        if (BobbyConfig.isPrioritizeViewDirection()) {
+            Camera camera = client.gameRenderer.getCamera();
+            float yaw = (float) Math.toRadians(camera.getYaw());
+            float pitch = (float) Math.toRadians(camera.getPitch());
+            lookX = -MathHelper.sin(yaw);
+            lookZ = MathHelper.cos(yaw);
+            // When looking straight down (or up), all directions are about equally visible
+            directionWeight = MathHelper.cos(pitch);
+        }
+
+        boolean centerChanged = centerX != loadingCenterX || centerZ != loadingCenterZ;
+        // Only re-prioritize once we have turned by more than ~20 degrees, re-sorting the queue is not free
+        boolean directionChanged = lookX * loadingLookX + lookZ * loadingLookZ < 0.94f
+                || Math.abs(directionWeight - loadingDirectionWeight) > 0.2f;
+        if (!centerChanged && !(directionChanged && directionWeight + loadingDirectionWeight > 0)) {
+            return false;
+        }
+
+        loadingCenterX = centerX;
+        loadingCenterZ = centerZ;
+        loadingLookX = lookX;
+        loadingLookZ = lookZ;
+        loadingDirectionWeight = directionWeight;
+        return true;
+    }
+
+    /**
+     * Computes the priority with which the given chunk should be loaded, lower values are loaded first.
+     *
+     * This is the squared distance to the player, multiplied by up to {@link #MAX_DIRECTION_PENALTY} the further the
+     * chunk is from the direction the camera is looking in, such that chunks on screen will be loaded before ones which
+     * are closer but behind the player.
+     */
+    private int getLoadPriority(int x, int z) {
+        int distanceX = x - loadingCenterX;
+        int distanceZ = z - loadingCenterZ;
+        int distanceSquared = distanceX * distanceX + distanceZ * distanceZ;
+        if (loadingDirectionWeight == 0 || distanceSquared <= 2) {
+            // Chunks right around the player may be visible no matter where we look
+            return distanceSquared;
+        }
+
+        float cos = (distanceX * loadingLookX + distanceZ * loadingLookZ) / (float) Math.sqrt(distanceSquared);
+        float penalty = 1 + (1 - cos) / 2 * (MAX_DIRECTION_PENALTY - 1) * loadingDirectionWeight;
+        return (int) Math.min(distanceSquared * penalty, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Whether chunks at the given position should be loaded in reduced detail, see {@link BobbyConfig#getLodDistance()}.
+     */
+    private boolean isLodDistance(int x, int z) {
+        int lodDistance = BobbyConfig.getLodDistance();
+        return lodDistance > 0 && !VisibleChunksTracker.isWithinDistance(x - loadingCenterX, z - loadingCenterZ,
+                lodDistance, BobbyConfig.isCircularViewDistance());
+    }
+
+    /**
+     * Starts re-loading all reduced detail chunks which we have since come close to in full detail.
+     */
+    private void upgradeLodChunks() {
+        LongList candidates = new LongArrayList();
+        fakeChunks.forEach((chunkPos, chunk) -> {
+            if (chunk instanceof FakeChunk fakeChunk && fakeChunk.lod) {
+                candidates.add(chunkPos);
+            }
+        });
+        for (int i = 0; i < candidates.size(); i++) {
+            upgradeLodChunk(candidates.getLong(i));
+        }
+    }
+
+    private void upgradeLodChunk(long chunkPos) {
+        if (!(fakeChunks.get(chunkPos) instanceof FakeChunk fakeChunk) || !fakeChunk.lod || loadingJobs.containsKey(chunkPos)) {
+            return;
+        }
+        if (downgradedChunks.containsKey(chunkPos)) {
+            return; // reduced to save memory, see [enforceMemoryBudget]
+        }
+        int x = ChunkPos.getPackedX(chunkPos);
+        int z = ChunkPos.getPackedZ(chunkPos);
+        if (isLodDistance(x, z)) {
+            return;
+        }
+        // The reduced detail chunk stays in place until the new one is ready, see [load]
+        LoadingJob job = new LoadingJob(x, z);
+        job.updatePriority();
+        loadingJobs.put(chunkPos, job);
+        loadExecutor.execute(job);
+    }
+
+    /**
+     * Updates the priority of all our queued loading jobs, and drops the ones which have since been cancelled, so they
+     * do not even reach the front of the queue.
+     */
+    private void reprioritizeLoadingJobs() {
+        List<Runnable> queued = new ArrayList<>(loadQueue.size());
+        loadQueue.drainTo(queued);
+        for (Runnable runnable : queued) {
+            LoadingJob job = (LoadingJob) runnable;
+            if (job.cancelled) {
+                continue;
+            }
+            if (job.getManager() == this) {
+                job.updatePriority();
+            }
+            loadQueue.add(job);
+        }
+    }
+
     public void loadMissingChunksFromCache() {
         // We do this by temporarily reducing the client view distance to 0. That will unload all chunks and then try
         // to re-load them (by canceling the unload when they were already loaded, or from the cache when they are
@@ -268,24 +597,69 @@ public class FakeChunkManager {
     }
 
     private CompletableFuture<Optional<Pair<NbtCompound, FakeChunkStorage>>> loadTag(int x, int z) {
-        return loadTag(new ChunkPos(x, z), 0);
+        ChunkPos chunkPos = new ChunkPos(x, z);
+
+        // Only query storages which may actually have the chunk, and query all of those at the same time (the first
+        // one on the current thread, all others on the io pool), so a miss in the primary storage does not delay the
+        // fallback one. Results are still picked in order of priority.
+        List<FakeChunkStorage> candidates = new ArrayList<>(storages.size());
+        List<CompletableFuture<Optional<NbtCompound>>> results = new ArrayList<>(storages.size());
+        for (FakeChunkStorage storage : storages) {
+            if (!storage.mayContain(chunkPos)) {
+                continue;
+            }
+            candidates.add(storage);
+            if (results.isEmpty()) {
+                results.add(null); // filled in below, once all others have been started
+            } else {
+                results.add(CompletableFuture.supplyAsync(() -> storage.loadTag(chunkPos), Util.getIoWorkerExecutor())
+                        .thenCompose(Function.identity()));
+            }
+        }
+        if (candidates.isEmpty()) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        results.set(0, candidates.get(0).loadTag(chunkPos));
+
+        return pickFirst(candidates, results, 0);
     }
 
-    private CompletableFuture<Optional<Pair<NbtCompound, FakeChunkStorage>>> loadTag(ChunkPos chunkPos, int storageIndex) {
-        FakeChunkStorage storage = storages.get(storageIndex);
-        return storage.loadTag(chunkPos).thenCompose(maybeTag -> {
+    private static CompletableFuture<Optional<Pair<NbtCompound, FakeChunkStorage>>> pickFirst(
+            List<FakeChunkStorage> storages,
+            List<CompletableFuture<Optional<NbtCompound>>> results,
+            int index
+    ) {
+        FakeChunkStorage storage = storages.get(index);
+        return results.get(index).thenCompose(maybeTag -> {
             if (maybeTag.isPresent()) {
                 return CompletableFuture.completedFuture(Optional.of(Pair.of(maybeTag.get(), storage)));
             }
-            if (storageIndex + 1 < storages.size()) {
-                return loadTag(chunkPos, storageIndex + 1);
+            if (index + 1 < storages.size()) {
+                return pickFirst(storages, results, index + 1);
             }
             return CompletableFuture.completedFuture(Optional.empty());
         });
     }
 
     public void load(int x, int z, WorldChunk chunk) {
-        fakeChunks.put(ChunkPos.toLong(x, z), chunk);
+        long chunkPos = ChunkPos.toLong(x, z);
+        // Whatever we may still have cached for this position is older than what we are loading now
+        decodedCache.invalidate(chunkPos);
+        if (chunk instanceof FakeChunk fakeChunk) {
+            fakeChunk.retainedSize = fakeChunk.estimateRetainedSize();
+            loadedBytes += fakeChunk.retainedSize;
+        }
+        WorldChunk previous = fakeChunks.put(chunkPos, chunk);
+        if (previous != null) {
+            // Chunk which has been re-loaded in a different level of detail. Its light data has already been replaced
+            // by the new chunk's, so all that is left to do is to get rid of its block entities (if any).
+            previous.clear();
+            if (previous instanceof FakeChunk fakeChunk) {
+                loadedBytes -= fakeChunk.retainedSize;
+            }
+            // Listeners (e.g. Sodium's) track chunks by position, so they must see the old one go before the new one
+            clientChunkManagerExt.bobby_onFakeChunkRemoved(x, z);
+        }
 
         world.resetChunkColor(new ChunkPos(x, z));
 
@@ -297,11 +671,27 @@ public class FakeChunkManager {
     }
 
     public boolean unload(int x, int z, boolean willBeReplaced) {
+        return unload(x, z, willBeReplaced, !willBeReplaced);
+    }
+
+    /**
+     * @param keepDecoded whether to keep the chunk in the [decodedCache], so it can be re-used without going to storage
+     */
+    private boolean unload(int x, int z, boolean willBeReplaced, boolean keepDecoded) {
         long chunkPos = ChunkPos.toLong(x, z);
         cancelLoad(chunkPos);
         WorldChunk chunk = fakeChunks.remove(chunkPos);
+        if (willBeReplaced) {
+            decodedCache.invalidate(chunkPos);
+        }
         if (chunk != null) {
             chunk.clear();
+            if (chunk instanceof FakeChunk fakeChunk) {
+                loadedBytes -= fakeChunk.retainedSize;
+                if (keepDecoded) {
+                    decodedCache.put(chunkPos, fakeChunk);
+                }
+            }
 
             LightingProvider lightingProvider = clientChunkManager.getLightingProvider();
 //            LightingProviderExt lightingProviderExt = LightingProviderExt.get(lightingProvider);
@@ -327,23 +717,356 @@ public class FakeChunkManager {
         return false;
     }
 
+    /**
+     * Keeps the estimated size of all loaded fake chunks within the configured budget.
+     *
+     * When over budget, the farthest chunks are first re-loaded in reduced detail, and only if that is not enough are
+     * they unloaded entirely. Once there is room again, evicted chunks which are still in view distance are loaded
+     * again (in reduced detail), and afterwards downgraded chunks get their full detail back.
+     *
+     * So chunks near the edge of the budget do not flip back and forth, we shrink down to [BUDGET_SHRINK_TARGET] but
+     * only restore chunks while their sizes from before they were shrunk fit below [BUDGET_RESTORE_LIMIT], and leave
+     * each position alone for [BUDGET_COOLDOWN_MILLIS] after touching it.
+     */
+    private void enforceMemoryBudget(int centerX, int centerZ, long time) {
+        if (!budgetCooldowns.isEmpty()) {
+            ObjectIterator<Long2LongMap.Entry> iterator = Long2LongMaps.fastIterator(budgetCooldowns);
+            while (iterator.hasNext()) {
+                if (iterator.next().getLongValue() <= time) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        long maxBytes = BobbyConfig.getMaxLoadedSizeMiB() * 1024L * 1024L;
+        if (maxBytes < 0) {
+            // Limit has been disabled, bring back everything we may have evicted before
+            budgetCooldowns.clear();
+            restoreEvictedChunks(centerX, centerZ, time, Long.MAX_VALUE);
+            return;
+        }
+        long restoreLimitBytes = maxBytes / 100 * BUDGET_RESTORE_LIMIT;
+        if (loadedBytes > maxBytes) {
+            shrinkLoadedChunks(centerX, centerZ, time, maxBytes / 100 * BUDGET_SHRINK_TARGET, maxBytes);
+        } else if (loadedBytes < restoreLimitBytes) {
+            restoreEvictedChunks(centerX, centerZ, time, restoreLimitBytes);
+        }
+    }
+
+    private void shrinkLoadedChunks(int centerX, int centerZ, long time, long targetBytes, long maxBytes) {
+        LongList candidates = new LongArrayList(fakeChunks.size());
+        fakeChunks.forEach((chunkPos, chunk) -> candidates.add(chunkPos));
+        LongComparator farthestFirst = (a, b) -> Integer.compare(
+                getDistanceSquared(b, centerX, centerZ),
+                getDistanceSquared(a, centerX, centerZ));
+        candidates.sort(farthestFirst);
+
+        // First try to make do with less detail. Reduced detail chunks are loaded asynchronously, so we need to account
+        // for the memory they are expected to free up once they are in place (including ones from previous updates).
+        long expectedBytes = getExpectedLoadedBytes();
+        for (int i = 0; i < candidates.size() && expectedBytes > targetBytes; i++) {
+            long chunkPos = candidates.getLong(i);
+            int x = ChunkPos.getPackedX(chunkPos);
+            int z = ChunkPos.getPackedZ(chunkPos);
+            if (!(fakeChunks.get(chunkPos) instanceof FakeChunk fakeChunk)) {
+                continue;
+            }
+            if (!chunkTracker.isInViewDistance(x, z)) {
+                // About to be unloaded anyway, no point in waiting for that (or in caching it)
+                toBeUnloaded.remove(chunkPos);
+                unload(x, z, false, false);
+                expectedBytes -= fakeChunk.retainedSize;
+                continue;
+            }
+            if (fakeChunk.lod || downgradedChunks.containsKey(chunkPos) || loadingJobs.containsKey(chunkPos) || isCoolingDown(chunkPos, time)) {
+                continue;
+            }
+            long savings = fakeChunk.estimateLodSavings();
+            if (savings <= 0) {
+                continue;
+            }
+            // The full detail chunk stays in place until the new one is ready, see [load]
+            LoadingJob job = new LoadingJob(x, z);
+            job.forceLod = true;
+            job.budgetSizes = new ChunkSizes(fakeChunk.retainedSize, fakeChunk.retainedSize - savings);
+            job.budgetBytes = -savings;
+            job.updatePriority();
+            loadingJobs.put(chunkPos, job);
+            loadExecutor.execute(job);
+            budgetCooldowns.put(chunkPos, time + BUDGET_COOLDOWN_MILLIS);
+            expectedBytes -= savings;
+        }
+
+        // Not enough, so also unload the farthest chunks entirely (they will be loaded again once there is room)
+        for (int i = 0; i < candidates.size() && expectedBytes > targetBytes; i++) {
+            long chunkPos = candidates.getLong(i);
+            if (fakeChunks.get(chunkPos) instanceof FakeChunk fakeChunk && !isCoolingDown(chunkPos, time)) {
+                expectedBytes -= evictChunk(chunkPos, fakeChunk, time);
+            }
+        }
+
+        // Chunks we have only just shrunk or restored are only evicted if we would otherwise stay above the limit
+        for (int i = 0; i < candidates.size() && expectedBytes > maxBytes; i++) {
+            long chunkPos = candidates.getLong(i);
+            if (fakeChunks.get(chunkPos) instanceof FakeChunk fakeChunk) {
+                expectedBytes -= evictChunk(chunkPos, fakeChunk, time);
+            }
+        }
+    }
+
+    /**
+     * @return by how much we expect this to reduce memory usage, see [getExpectedLoadedBytes]
+     */
+    private long evictChunk(long chunkPos, FakeChunk fakeChunk, long time) {
+        int x = ChunkPos.getPackedX(chunkPos);
+        int z = ChunkPos.getPackedZ(chunkPos);
+        LoadingJob job = loadingJobs.get(chunkPos);
+        long freedBytes = fakeChunk.retainedSize + (job != null && job.budgetSizes != null ? job.budgetBytes : 0);
+        ChunkSizes downgraded = downgradedChunks.get(chunkPos);
+        ChunkSizes sizes = new ChunkSizes(
+                downgraded != null ? downgraded.fullBytes : fakeChunk.retainedSize,
+                fakeChunk.retainedSize - fakeChunk.estimateLodSavings());
+
+        // The whole point is to free up memory, so do not hold on to it in the decoded cache either
+        unload(x, z, false, false);
+        if (chunkTracker.isInViewDistance(x, z)) {
+            evictedChunks.put(chunkPos, sizes);
+        }
+        budgetCooldowns.put(chunkPos, time + BUDGET_COOLDOWN_MILLIS);
+        return freedBytes;
+    }
+
+    private void restoreEvictedChunks(int centerX, int centerZ, long time, long limitBytes) {
+        if (evictedChunks.isEmpty() && downgradedChunks.isEmpty()) {
+            return;
+        }
+
+        long expectedBytes = getExpectedLoadedBytes();
+        if (expectedBytes >= limitBytes) {
+            return;
+        }
+
+        LongComparator nearestFirst = (a, b) -> Integer.compare(
+                getDistanceSquared(a, centerX, centerZ),
+                getDistanceSquared(b, centerX, centerZ));
+
+        // Fill any holes first, in reduced detail
+        LongList candidates = new LongArrayList(evictedChunks.keySet());
+        candidates.sort(nearestFirst);
+        for (int i = 0; i < candidates.size(); i++) {
+            long chunkPos = candidates.getLong(i);
+            int x = ChunkPos.getPackedX(chunkPos);
+            int z = ChunkPos.getPackedZ(chunkPos);
+            if (!chunkTracker.isInViewDistance(x, z) || fakeChunks.containsKey(chunkPos) || loadingJobs.containsKey(chunkPos)
+                    || clientChunkManager.getChunk(x, z, ChunkStatus.FULL, false) != null) {
+                evictedChunks.remove(chunkPos);
+                continue;
+            }
+            if (isCoolingDown(chunkPos, time)) {
+                continue;
+            }
+            ChunkSizes sizes = evictedChunks.get(chunkPos);
+            if (expectedBytes + sizes.lodBytes > limitBytes) {
+                break;
+            }
+            evictedChunks.remove(chunkPos);
+            LoadingJob job = new LoadingJob(x, z);
+            job.forceLod = true;
+            job.budgetSizes = sizes;
+            job.budgetBytes = sizes.lodBytes;
+            job.updatePriority();
+            loadingJobs.put(chunkPos, job);
+            loadExecutor.execute(job);
+            budgetCooldowns.put(chunkPos, time + BUDGET_COOLDOWN_MILLIS);
+            expectedBytes += sizes.lodBytes;
+        }
+        if (!evictedChunks.isEmpty()) {
+            return;
+        }
+
+        // Then bring back full detail
+        candidates = new LongArrayList(downgradedChunks.keySet());
+        candidates.sort(nearestFirst);
+        for (int i = 0; i < candidates.size(); i++) {
+            long chunkPos = candidates.getLong(i);
+            if (!(fakeChunks.get(chunkPos) instanceof FakeChunk fakeChunk) || !fakeChunk.lod || loadingJobs.containsKey(chunkPos)) {
+                downgradedChunks.remove(chunkPos);
+                continue;
+            }
+            if (isCoolingDown(chunkPos, time)) {
+                continue;
+            }
+            ChunkSizes sizes = downgradedChunks.get(chunkPos);
+            long extraBytes = Math.max(0, sizes.fullBytes - fakeChunk.retainedSize);
+            if (expectedBytes + extraBytes > limitBytes) {
+                break;
+            }
+            downgradedChunks.remove(chunkPos);
+            upgradeLodChunk(chunkPos);
+            LoadingJob job = loadingJobs.get(chunkPos);
+            if (job != null) {
+                job.budgetSizes = sizes;
+                job.budgetBytes = extraBytes;
+                budgetCooldowns.put(chunkPos, time + BUDGET_COOLDOWN_MILLIS);
+                expectedBytes += extraBytes;
+            }
+        }
+    }
+
+    /**
+     * @return how much memory we expect loaded fake chunks to take up once all jobs in progress are done
+     */
+    private long getExpectedLoadedBytes() {
+        // For jobs not started by [enforceMemoryBudget], we cannot know until they are done, so the average size of
+        // the chunks we already have is the best estimate
+        long averageBytes = fakeChunks.isEmpty() ? 0 : loadedBytes / fakeChunks.size();
+        long expectedBytes = loadedBytes;
+        for (LoadingJob job : loadingJobs.values()) {
+            expectedBytes += job.budgetSizes != null ? job.budgetBytes : averageBytes;
+        }
+        return expectedBytes;
+    }
+
+    private boolean isCoolingDown(long chunkPos, long time) {
+        return budgetCooldowns.get(chunkPos) > time;
+    }
+
+    private static int getDistanceSquared(long chunkPos, int centerX, int centerZ) {
+        int distanceX = ChunkPos.getPackedX(chunkPos) - centerX;
+        int distanceZ = ChunkPos.getPackedZ(chunkPos) - centerZ;
+        return distanceX * distanceX + distanceZ * distanceZ;
+    }
+
     private void cancelLoad(long chunkPos) {
+        // A prefetched read may be older than whatever ends up at this position (e.g. a real chunk replacing it), so it
+        // must not be promoted later
+        LoadingJob prefetched = prefetchJobs.remove(chunkPos);
+        if (prefetched != null) {
+            prefetched.cancelled = true;
+        }
+
         LoadingJob loadingJob = loadingJobs.remove(chunkPos);
         if (loadingJob != null) {
             loadingJob.cancelled = true;
+            if (loadingJob == finalizingJob) {
+                finalizingJob = null;
+                if (fakeChunks.containsKey(chunkPos)) {
+                    // Replacing an existing chunk (e.g. a reduced detail one being upgraded) whose light data has
+                    // already been partially overwritten, so we cannot just abort, but need to finish the replacement
+                    loadingJob.complete(() -> true);
+                } else {
+                    loadingJob.result.ifPresent(ChunkSerializer.Finalizer::abort);
+                }
+            }
         }
+
+        // Whatever happens to this position now supersedes any plans to restore it, see [enforceMemoryBudget]
+        evictedChunks.remove(chunkPos);
+        downgradedChunks.remove(chunkPos);
     }
 
     public Supplier<WorldChunk> save(WorldChunk chunk) {
         Pair<WorldChunk, Supplier<WorldChunk>> copy = ChunkSerializer.shallowCopy(chunk);
         LightingProvider lightingProvider = chunk.getWorld().getLightingProvider();
-        saveExecutor.execute(() -> {
-            NbtCompound nbt = ChunkSerializer.serialize(copy.getLeft(), lightingProvider);
-            storage.save(chunk.getPos(), nbt);
-        });
+        ChunkPos pos = chunk.getPos();
+        long key = pos.toLong();
+        PendingSave pendingSave = new PendingSave((FakeChunk) copy.getLeft(), lightingProvider);
+
+        if (!shouldBeLoaded(pos.x, pos.z)) {
+            // The copy will not be used as a replacement right away, but we may still need it once the chunk comes
+            // back into view distance, so keep it around instead of reading it back from disk then.
+            decodedCache.put(key, pendingSave.chunk);
+            // Any prefetched read of this chunk is older than the copy we just cached
+            LoadingJob prefetched = prefetchJobs.remove(key);
+            if (prefetched != null) {
+                prefetched.cancelled = true;
+            }
+        }
+
+        savesQueued.incrementAndGet();
+        PendingSave superseded;
+        synchronized (pendingSaves) {
+            superseded = pendingSaves.put(key, pendingSave);
+        }
+        if (superseded != null) {
+            // There is already a task queued (or deferred) for this chunk, it will pick up our snapshot instead
+            savesCoalesced.incrementAndGet();
+            return copy.getRight();
+        }
+
+        if (!submitSave(key)) {
+            deferredSaves.enqueue(key);
+            while (deferredSaves.size() > MAX_DEFERRED_SAVES) {
+                long deferredKey = deferredSaves.dequeueLong();
+                saveExecutor.execute(deferredKey, () -> writePendingSave(deferredKey));
+            }
+        }
         return copy.getRight();
     }
 
+    private void submitDeferredSaves() {
+        while (!deferredSaves.isEmpty() && submitSave(deferredSaves.firstLong())) {
+            deferredSaves.dequeueLong();
+        }
+    }
+
+    /**
+     * Submits a task which serializes and writes the pending snapshot of the given chunk.
+     *
+     * @return {@code false} if the save executor is full and the task needs to be submitted again later
+     */
+    private boolean submitSave(long key) {
+        return saveExecutor.tryExecute(key, () -> writePendingSave(key));
+    }
+
+    /**
+     * Serializes and writes the pending snapshot of the given chunk. Must run on the save executor lane of the chunk.
+     */
+    private void writePendingSave(long key) {
+        PendingSave latest;
+        synchronized (pendingSaves) {
+            latest = pendingSaves.remove(key);
+        }
+        if (latest == null) {
+            return;
+        }
+        ChunkPos pos = new ChunkPos(key);
+        long fingerprint = ChunkFingerprint.compute(latest.chunk);
+        if (storage.isUpToDate(pos, fingerprint)) {
+            savesUnchanged.incrementAndGet();
+            return;
+        }
+        NbtCompound nbt = ChunkSerializer.serialize(latest.chunk, latest.lightingProvider, serializerContext, storage.isBinarySections());
+        storage.save(pos, nbt, fingerprint);
+    }
+
+    /**
+     * @return total number of saves requested via {@link #save(WorldChunk)}
+     */
+    public long getSavesQueued() {
+        return savesQueued.get();
+    }
+
+    /**
+     * @return number of saves which were dropped because a newer snapshot of the same chunk arrived before they were written
+     */
+    public long getSavesCoalesced() {
+        return savesCoalesced.get();
+    }
+
+    /**
+     * @return number of saves which were skipped because the chunk has not changed since it was last saved
+     */
+    public long getSavesUnchanged() {
+        return savesUnchanged.get();
+    }
+
+    private int getPendingSaveCount() {
+        synchronized (pendingSaves) {
+            return pendingSaves.size();
+        }
+    }
+
     private static String getCurrentWorldOrServerName() {
         IntegratedServer integratedServer = client.getServer();
         if (integratedServer != null) {
@@ -363,26 +1086,86 @@ public class FakeChunkManager {
         return "unknown";
     }
 
+    /**
+     * @return summary appended to the client chunk cache line of the debug screen
+     */
     public String getDebugString() {
-        return "F: " + fakeChunks.size() + " L: " + loadingJobs.size() + " U: " + toBeUnloaded.size();
+        return "F: " + fakeChunks.size() + " L: " + loadingJobs.size() + " U: " + toBeUnloaded.size() + " M: " + (loadedBytes >> 20) + "MiB";
+    }
+
+    /**
+     * @return detailed counters, shown on their own line of the debug screen, see DebugHudMixin
+     */
+    public String getDetailedDebugString() {
+        return "Bobby saves: " + getPendingSaveCount() + " pending, " + savesCoalesced.get() + " coalesced, " + savesUnchanged.get() + " unchanged"
+                + " | index: " + storage.getExistenceIndex().getHits() + "/" + storage.getExistenceIndex().getMisses()
+                + " | prefetch: " + prefetchJobs.size()
+                + " | decoded: " + decodedCache.getHits() + "/" + decodedCache.getMisses() + ", " + (decodedCache.getRetainedBytes() >> 20) + "MiB"
+                + " | budget: " + evictedChunks.size() + " evicted, " + downgradedChunks.size() + " downgraded";
     }
 
     public Collection<WorldChunk> getFakeChunks() {
         return fakeChunks.values();
     }
 
+    /**
+     * Sizes of a chunk in full and in reduced detail, as measured (or estimated from the sections which would be
+     * dropped) when [enforceMemoryBudget] shrunk it, so it knows how much memory bringing the chunk back will take.
+     */
+    private static class ChunkSizes {
+        private final long fullBytes;
+        private final long lodBytes;
+
+        private ChunkSizes(long fullBytes, long lodBytes) {
+            this.fullBytes = fullBytes;
+            this.lodBytes = lodBytes;
+        }
+    }
+
+    private static class PendingSave {
+        private final FakeChunk chunk;
+        private final LightingProvider lightingProvider;
+
+        private PendingSave(FakeChunk chunk, LightingProvider lightingProvider) {
+            this.chunk = chunk;
+            this.lightingProvider = lightingProvider;
+        }
+    }
+
     private class LoadingJob implements Runnable {
         private final int x;
         private final int z;
-        private final int distanceSquared;
+        // Only modified while the job is not in the [loadQueue]
+        private int priority;
         private volatile boolean cancelled;
+        // Whether this job is for a chunk which is not yet in view distance, see [prefetchJobs]
+        private boolean prefetch;
+        // Whether to load the chunk in reduced detail, see [isLodDistance]. Updated together with the priority.
+        private volatile boolean lod;
+        // Whether to load the chunk in reduced detail regardless of its distance, see [enforceMemoryBudget]
+        private boolean forceLod;
+        // For jobs started by [enforceMemoryBudget], the sizes of the chunk in either level of detail, and by how much
+        // we expect [loadedBytes] to change once the job is done. Null for all other jobs.
+        private ChunkSizes budgetSizes;
+        private long budgetBytes;
         @SuppressWarnings("OptionalUsedAsFieldOrParameterType") // null while loading, empty() if no chunk was found
-        private volatile Optional<Supplier<WorldChunk>> result;
+        private volatile Optional<ChunkSerializer.Finalizer> result;
 
-        public LoadingJob(int x, int z, int distanceSquared) {
+        public LoadingJob(int x, int z) {
             this.x = x;
             this.z = z;
-            this.distanceSquared = distanceSquared;
+        }
+
+        private FakeChunkManager getManager() {
+            return FakeChunkManager.this;
+        }
+
+        private void updatePriority() {
+            lod = forceLod || isLodDistance(x, z);
+            priority = getLoadPriority(x, z);
+            if (prefetch) {
+                priority = PREFETCH_PRIORITY_OFFSET + Math.min(priority, PREFETCH_PRIORITY_OFFSET - 1);
+            }
         }
 
         @Override
@@ -390,23 +1173,50 @@ public class FakeChunkManager {
             if (cancelled) {
                 return;
             }
-            Optional<Pair<NbtCompound, FakeChunkStorage>> value;
+            Optional<ChunkSerializer.Finalizer> result = Optional.empty();
             try {
-                value = loadTag(x, z).get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-                value = Optional.empty();
-            }
-            if (cancelled) {
-                return;
+                Optional<Pair<NbtCompound, FakeChunkStorage>> value;
+                try {
+                    value = loadTag(x, z).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                    value = Optional.empty();
+                }
+                if (cancelled) {
+                    return;
+                }
+                result = value.map(it -> ChunkSerializer.deserialize(new ChunkPos(x, z), it.getLeft(), world, serializerContext, lod));
+            } finally {
+                if (!cancelled) {
+                    this.result = result;
+                    completedJobs.add(this);
+                }
             }
-            result = value.map(it -> ChunkSerializer.deserialize(new ChunkPos(x, z), it.getLeft(), world));
         }
 
-        public void complete() {
-            result.ifPresent(it -> load(x, z, it.get()));
+        /**
+         * Finalizes the loaded chunk (if any) and adds it to the world, or stops early if we run out of time.
+         *
+         * @return {@code true} if done, {@code false} if this needs to be called again
+         */
+        public boolean complete(BooleanSupplier shouldKeepTicking) {
+            if (result.isPresent()) {
+                ChunkSerializer.Finalizer finalizer = result.get();
+                if (!finalizer.step(shouldKeepTicking)) {
+                    return false;
+                }
+                load(x, z, finalizer.get());
+            }
+            long chunkPos = ChunkPos.toLong(x, z);
+            if (forceLod && fakeChunks.get(chunkPos) instanceof FakeChunk fakeChunk) {
+                // Also if there was nothing to load, so we do not keep trying to downgrade the same chunk.
+                // Now that it is in place, we know its actual size in reduced detail.
+                long fullBytes = budgetSizes != null ? budgetSizes.fullBytes : fakeChunk.retainedSize;
+                downgradedChunks.put(chunkPos, new ChunkSizes(fullBytes, fakeChunk.retainedSize));
+            }
+            return true;
         }
 
-        public static final Comparator<LoadingJob> BY_DISTANCE = Comparator.comparing(it -> it.distanceSquared);
+        public static final Comparator<Runnable> BY_PRIORITY = Comparator.comparingInt(it -> ((LoadingJob) it).priority);
     }
 }
@@ -2,10 +2,14 @@ package de.johni0702.minecraft.bobby;
 
 import com.mojang.serialization.Codec;
 import io.netty.util.concurrent.DefaultThreadFactory;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import net.minecraft.SharedConstants;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
 import net.minecraft.text.Text;
+import net.minecraft.util.Util;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.registry.Registry;
 import net.minecraft.util.registry.RegistryKey;
@@ -18,6 +22,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -57,6 +65,8 @@ public class FakeChunkStorage extends VersionedChunkStorage {
             }
         }
         active.clear();
+
+        CacheSizeLimiter.scheduleRun();
     }
 
     private final Path directory;
@@ -64,6 +74,17 @@ public class FakeChunkStorage extends VersionedChunkStorage {
     private final AtomicBoolean sentUpgradeNotification = new AtomicBoolean();
     @Nullable
     private final LastAccessFile lastAccess;
+    @Nullable
+    private final FingerprintFile fingerprints;
+    private final ChunkExistenceIndex existenceIndex;
+    private final boolean binarySections;
+    @Nullable
+    private final CompactChunkStorage compactStorage;
+    @Nullable
+    private final MappedRegionReader mappedReader;
+    // Number of writes per chunk which have been handed to the io worker but not yet completed. While there are any,
+    // the region file may not yet contain the latest data, so we need to read through the io worker instead.
+    private final Long2IntMap pendingWrites = new Long2IntOpenHashMap();
 
     private FakeChunkStorage(Path directory, boolean writeable) {
         super(directory, MinecraftClient.getInstance().getDataFixer(), false);
@@ -72,7 +93,11 @@ public class FakeChunkStorage extends VersionedChunkStorage {
         this.writeable = writeable;
 
         LastAccessFile lastAccess = null;
+        FingerprintFile fingerprints = null;
+        CacheFormat format = CacheFormat.legacy();
         if (writeable) {
+            CacheSizeLimiter.markInUse(directory);
+
             try {
                 Files.createDirectories(directory);
 
@@ -80,14 +105,47 @@ public class FakeChunkStorage extends VersionedChunkStorage {
             } catch (IOException e) {
                 LOGGER.error("Failed to read last_access file:", e);
             }
+
+            fingerprints = new FingerprintFile(directory);
+
+            try {
+                format = CacheFormat.readOrCreate(directory, CacheFormat.of(
+                        BobbyConfig.isBinarySections(),
+                        BobbyConfig.isCompactStorage(),
+                        CompactRegionFile.Compression.byName(BobbyConfig.getCompactStorageCompression(), CompactRegionFile.Compression.LZ4)
+                ));
+            } catch (IOException e) {
+                LOGGER.error("Failed to read " + CacheFormat.FILE_NAME + " file:", e);
+            }
         }
         this.lastAccess = lastAccess;
+        this.fingerprints = fingerprints;
+        this.existenceIndex = new ChunkExistenceIndex(directory, writeable);
+        this.binarySections = format.isBinarySections();
+        this.compactStorage = format.isCompactStorage() ? new CompactChunkStorage(directory, format.getCompression()) : null;
+        // Mapped files cannot be deleted or replaced on Windows until the mapping has been garbage collected, which
+        // would break deleting and rewriting region files (see CacheSizeLimiter), so we only use them elsewhere
+        this.mappedReader = BobbyConfig.isMemoryMappedReads() && Util.getOperatingSystem() != Util.OperatingSystem.WINDOWS
+                ? new MappedRegionReader(directory)
+                : null;
+    }
+
+    public boolean isBinarySections() {
+        return binarySections;
     }
 
     @Override
     public void close() throws IOException {
         super.close();
 
+        if (mappedReader != null) {
+            mappedReader.close();
+        }
+
+        if (compactStorage != null) {
+            compactStorage.close();
+        }
+
         if (lastAccess != null) {
             int deleteUnusedRegionsAfterDays = BobbyConfig.getDeleteUnusedRegionsAfterDays();
             if (deleteUnusedRegionsAfterDays >= 0) {
@@ -95,27 +153,162 @@ public class FakeChunkStorage extends VersionedChunkStorage {
                     int x = ChunkPos.getPackedX(entry);
                     int z = ChunkPos.getPackedZ(entry);
                     Files.deleteIfExists(directory.resolve("r." + x + "." + z + ".mca"));
+                    Files.deleteIfExists(directory.resolve(CompactRegionFile.getFileName(x, z)));
+                    if (fingerprints != null) {
+                        fingerprints.removeRegion(x, z);
+                    }
+                    existenceIndex.removeRegion(x, z);
                 }
             }
 
             lastAccess.close();
         }
+
+        if (fingerprints != null) {
+            fingerprints.close();
+        }
+
+        existenceIndex.close();
+
+        if (writeable) {
+            CacheSizeLimiter.markNotInUse(directory);
+        }
+    }
+
+    /**
+     * Checks whether the chunk at the given position was last saved with the given {@link ChunkFingerprint}, in which
+     * case there is no need to save it again.
+     */
+    public boolean isUpToDate(ChunkPos pos, long fingerprint) {
+        if (fingerprints == null || !fingerprints.matches(pos, fingerprint)) {
+            return false;
+        }
+        if (lastAccess != null) {
+            lastAccess.touchChunk(pos);
+        }
+        return true;
     }
 
-    public void save(ChunkPos pos, NbtCompound chunk) {
+    public void save(ChunkPos pos, NbtCompound chunk, long fingerprint) {
+        CompletableFuture<Void> future = save(pos, chunk);
+        if (fingerprints != null) {
+            // Only once the write has succeeded, otherwise isUpToDate would keep skipping the chunk even though the
+            // stored version is outdated
+            future.thenRun(() -> fingerprints.set(pos, fingerprint));
+        }
+    }
+
+    /**
+     * @return a future which completes once the chunk has been written, or completes exceptionally if that failed
+     */
+    public CompletableFuture<Void> save(ChunkPos pos, NbtCompound chunk) {
+        existenceIndex.add(pos);
         if (lastAccess != null) {
-            lastAccess.touchRegion(pos.getRegionX(), pos.getRegionZ());
+            lastAccess.touchChunk(pos);
+        }
+        if (compactStorage != null) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (DataOutputStream out = new DataOutputStream(bytes)) {
+                    NbtIo.write(chunk, out);
+                }
+                compactStorage.write(pos.x, pos.z, bytes.toByteArray());
+            } catch (IOException e) {
+                LOGGER.error("Failed to save chunk " + pos + ":", e);
+                return CompletableFuture.failedFuture(e);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        StorageIoWorker io = (StorageIoWorker) getWorker();
+        if (mappedReader == null) {
+            return io.setResult(pos, chunk);
         }
-        setNbt(pos, chunk);
+
+        long key = pos.toLong();
+        synchronized (pendingWrites) {
+            pendingWrites.addTo(key, 1);
+        }
+        return io.setResult(pos, chunk).whenComplete((result, throwable) -> {
+            mappedReader.invalidate(pos.getRegionX(), pos.getRegionZ());
+            synchronized (pendingWrites) {
+                if (pendingWrites.addTo(key, -1) <= 1) {
+                    pendingWrites.remove(key);
+                }
+            }
+        });
     }
 
     public CompletableFuture<Optional<NbtCompound>> loadTag(ChunkPos pos) {
+        if (!existenceIndex.mayContain(pos)) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return readTag(pos).thenApply(maybeNbt -> {
+            if (maybeNbt.isEmpty()) {
+                existenceIndex.reportFalsePositive();
+            }
+            return maybeNbt;
+        });
+    }
+
+    /**
+     * @return {@code false} if this storage definitely does not contain the given chunk
+     */
+    public boolean mayContain(ChunkPos pos) {
+        return existenceIndex.peek(pos);
+    }
+
+    public ChunkExistenceIndex getExistenceIndex() {
+        return existenceIndex;
+    }
+
+    private CompletableFuture<Optional<NbtCompound>> readTag(ChunkPos pos) {
+        if (compactStorage != null) {
+            try {
+                byte[] bytes = compactStorage.read(pos.x, pos.z);
+                if (bytes != null) {
+                    NbtCompound nbt = NbtIo.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+                    return CompletableFuture.completedFuture(Optional.ofNullable(loadTag(pos, nbt)));
+                }
+            } catch (IOException e) {
+                LOGGER.error("Failed to read chunk " + pos + ":", e);
+            }
+            // Not (yet) converted chunks may still be in a vanilla region file
+        }
+        if (mappedReader != null && !hasPendingWrite(pos)) {
+            try {
+                // Reading directly on the calling thread, see MappedRegionReader
+                Optional<NbtCompound> maybeNbt = mappedReader.read(pos);
+                return CompletableFuture.completedFuture(maybeNbt.map(nbt -> loadTag(pos, nbt)));
+            } catch (IOException e) {
+                // May happen if we raced with a write to the same region, the io worker will sort it out
+                LOGGER.debug("Failed to read chunk " + pos + " from mapped region file, retrying via io worker:", e);
+            }
+        }
         return getNbt(pos).thenApply(maybeNbt -> maybeNbt.map(nbt -> loadTag(pos, nbt)));
     }
 
+    @Override
+    public void completeAll() {
+        super.completeAll();
+
+        if (compactStorage != null) {
+            try {
+                compactStorage.flush();
+            } catch (IOException e) {
+                LOGGER.error("Failed to flush compact storage:", e);
+            }
+        }
+    }
+
+    private boolean hasPendingWrite(ChunkPos pos) {
+        synchronized (pendingWrites) {
+            return pendingWrites.containsKey(pos.toLong());
+        }
+    }
+
     private NbtCompound loadTag(ChunkPos pos, NbtCompound nbt) {
         if (nbt != null && lastAccess != null) {
-            lastAccess.touchRegion(pos.getRegionX(), pos.getRegionZ());
+            lastAccess.touchChunk(pos);
         }
         if (nbt != null && nbt.getInt("DataVersion") != SharedConstants.getGameVersion().getSaveVersion().getId()) {
             if (sentUpgradeNotification.compareAndSet(false, true)) {
@@ -134,20 +327,13 @@ public class FakeChunkStorage extends VersionedChunkStorage {
         Optional<RegistryKey<Codec<? extends ChunkGenerator>>> generatorKey =
                 Optional.of(Registry.CHUNK_GENERATOR.getKey(FlatChunkGenerator.CODEC).orElseThrow());
 
-        List<ChunkPos> chunks;
-        try (Stream<Path> stream = Files.list(directory)) {
-            chunks = stream
-                    .map(Path::getFileName)
-                    .map(Path::toString)
-                    .map(REGION_FILE_PATTERN::matcher)
-                    .filter(Matcher::matches)
-                    .map(it -> new RegionPos(Integer.parseInt(it.group(1)), Integer.parseInt(it.group(2))))
-                    .flatMap(RegionPos::getContainedChunks)
-                    .collect(Collectors.toList());
-        }
+        List<ChunkPos> chunks = listChunks(REGION_FILE_PATTERN);
+        // Chunks in compact region files need to be upgraded as well (vanilla region files may still exist alongside
+        // them, containing chunks which have not yet been converted)
+        List<ChunkPos> compactChunks = compactStorage != null ? listChunks(CompactRegionFile.FILE_PATTERN) : List.of();
 
         AtomicInteger done = new AtomicInteger();
-        AtomicInteger total = new AtomicInteger(chunks.size());
+        AtomicInteger total = new AtomicInteger(chunks.size() + compactChunks.size());
         progress.accept(done.get(), total.get());
 
         StorageIoWorker io = (StorageIoWorker) getWorker();
@@ -179,6 +365,43 @@ public class FakeChunkStorage extends VersionedChunkStorage {
                     nbt = updateChunkNbt(worldKey, null, nbt, generatorKey);
 
                     io.setResult(chunkPos, nbt).join();
+                    if (mappedReader != null) {
+                        mappedReader.invalidate(chunkPos.getRegionX(), chunkPos.getRegionZ());
+                    }
+
+                    progress.accept(done.incrementAndGet(), total.get());
+                });
+            }
+            for (ChunkPos chunkPos : compactChunks) {
+                workExecutor.submit(() -> {
+                    NbtCompound nbt;
+                    try {
+                        byte[] bytes = compactStorage.read(chunkPos.x, chunkPos.z);
+                        nbt = bytes != null ? NbtIo.read(new DataInputStream(new ByteArrayInputStream(bytes))) : null;
+                    } catch (IOException e) {
+                        LOGGER.warn("Error reading chunk " + chunkPos.x + "/" + chunkPos.z + ":", e);
+                        nbt = null;
+                    }
+
+                    if (nbt == null) {
+                        progress.accept(done.get(), total.decrementAndGet());
+                        return;
+                    }
+
+                    // See above
+                    nbt.putBoolean("isLightOn", true);
+
+                    nbt = updateChunkNbt(worldKey, null, nbt, generatorKey);
+
+                    try {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        try (DataOutputStream out = new DataOutputStream(bytes)) {
+                            NbtIo.write(nbt, out);
+                        }
+                        compactStorage.write(chunkPos.x, chunkPos.z, bytes.toByteArray());
+                    } catch (IOException e) {
+                        LOGGER.error("Failed to save chunk " + chunkPos.x + "/" + chunkPos.z + ":", e);
+                    }
 
                     progress.accept(done.incrementAndGet(), total.get());
                 });
@@ -197,6 +420,19 @@ public class FakeChunkStorage extends VersionedChunkStorage {
         progress.accept(done.get(), total.get());
     }
 
+    private List<ChunkPos> listChunks(Pattern regionFilePattern) throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream
+                    .map(Path::getFileName)
+                    .map(Path::toString)
+                    .map(regionFilePattern::matcher)
+                    .filter(Matcher::matches)
+                    .map(it -> new RegionPos(Integer.parseInt(it.group(1)), Integer.parseInt(it.group(2))))
+                    .flatMap(RegionPos::getContainedChunks)
+                    .collect(Collectors.toList());
+        }
+    }
+
     private static final class RegionPos
     {
         private final int x;
@@ -0,0 +1,120 @@
+package de.johni0702.minecraft.bobby;
+
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongPredicate;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.util.math.ChunkPos;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Stores the {@link ChunkFingerprint} of every chunk saved in a given folder, so we can skip saving chunks which have
+ * not changed.
+ *
+ * The file is deleted when it is read and only written back once the storage is closed properly. That way, if the game
+ * crashes after some chunks have been written but before the file has been updated, we do not end up with stale
+ * fingerprints (and skip saves we should not have skipped); we merely have to re-save everything once.
+ */
+public class FingerprintFile implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String FILE_NAME = "fingerprints";
+
+    private final Path path;
+    private boolean closed;
+
+    private final Long2LongMap fingerprints;
+
+    public FingerprintFile(Path directory) {
+        this.path = directory.resolve(FILE_NAME);
+
+        Long2LongMap fingerprints;
+        try {
+            fingerprints = read(path);
+            Files.deleteIfExists(path);
+        } catch (Exception e) {
+            LOGGER.error("Error parsing " + path + ", all chunks will be re-saved:", e);
+            fingerprints = new Long2LongOpenHashMap();
+        }
+        this.fingerprints = fingerprints;
+    }
+
+    public boolean matches(ChunkPos pos, long fingerprint) {
+        synchronized (fingerprints) {
+            long key = pos.toLong();
+            return fingerprints.containsKey(key) && fingerprints.get(key) == fingerprint;
+        }
+    }
+
+    public void set(ChunkPos pos, long fingerprint) {
+        synchronized (fingerprints) {
+            fingerprints.put(pos.toLong(), fingerprint);
+        }
+    }
+
+    public void removeRegion(int regionX, int regionZ) {
+        synchronized (fingerprints) {
+            LongPredicate inRegion = key -> ChunkPos.getPackedX(key) >> 5 == regionX && ChunkPos.getPackedZ(key) >> 5 == regionZ;
+            fingerprints.keySet().removeIf(inRegion);
+        }
+    }
+
+    /**
+     * Removes the given chunks from the fingerprints of a folder which is not currently in use.
+     */
+    static void removeChunks(Path directory, LongSet chunks) throws IOException {
+        Path path = directory.resolve(FILE_NAME);
+        if (Files.notExists(path)) {
+            return;
+        }
+        FingerprintFile file = new FingerprintFile(directory);
+        file.fingerprints.keySet().removeAll(chunks);
+        file.close();
+    }
+
+    private static Long2LongMap read(Path path) throws IOException {
+        Long2LongMap map = new Long2LongOpenHashMap();
+        if (Files.exists(path)) {
+            PacketByteBuf buf = new PacketByteBuf(Unpooled.wrappedBuffer(Files.readAllBytes(path)));
+            while (buf.isReadable()) {
+                int x = buf.readVarInt();
+                int z = buf.readVarInt();
+                map.put(ChunkPos.toLong(x, z), buf.readLong());
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        PacketByteBuf buf;
+        synchronized (fingerprints) {
+            buf = new PacketByteBuf(Unpooled.buffer(fingerprints.size() * 16));
+            for (Long2LongMap.Entry entry : fingerprints.long2LongEntrySet()) {
+                buf.writeVarInt(ChunkPos.getPackedX(entry.getLongKey()));
+                buf.writeVarInt(ChunkPos.getPackedZ(entry.getLongKey()));
+                buf.writeLong(entry.getLongValue());
+            }
+        }
+
+        Path tmpFile = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmpFile, buf.getWrittenBytes());
+            Files.move(tmpFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+}
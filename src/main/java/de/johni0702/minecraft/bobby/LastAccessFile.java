@@ -2,10 +2,14 @@ package de.johni0702.minecraft.bobby;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.longs.Long2LongMap;
 import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongPredicate;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.util.Util;
 import net.minecraft.util.math.ChunkPos;
@@ -19,6 +23,7 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -27,39 +32,79 @@ import java.util.stream.Stream;
 import static de.johni0702.minecraft.bobby.FakeChunkStorage.REGION_FILE_PATTERN;
 
 /**
- * Stores approximate (~1 minute resolution) access timestamps for region files of a given folder.
+ * Stores approximate (~1 minute resolution) access timestamps for region files and individual chunks of a given folder.
+ * Region timestamps are used to delete unused regions, chunk timestamps to enforce the cache size limit, see
+ * {@link CacheSizeLimiter}.
  *
  * We handle this all manually because file system access times are highly unreliable.
+ *
+ * Changes are appended to a journal file once a minute, which is only merged into the full snapshot files once it has
+ * grown larger than them (and when the folder is closed), so regular saves only cost as much as there were changes.
  */
 public class LastAccessFile implements Closeable {
 
     private static final Logger LOGGER = LogManager.getLogger();
     private static final String FILE_NAME = "last_access";
+    private static final String CHUNKS_FILE_NAME = "last_access_chunks";
+    private static final String JOURNAL_FILE_NAME = "last_access.journal";
+
+    private static final int JOURNAL_REGION = 0;
+    private static final int JOURNAL_CHUNK = 1;
+    private static final long MIN_JOURNAL_SIZE_FOR_COMPACTION = 64 * 1024;
 
     private final Path path;
-    private final Thread finalSaveThread = new Thread(this::saveOrLog, "bobby-save-last-access");
+    private final Path chunksPath;
+    private final Path journalPath;
+    private final Thread finalSaveThread = new Thread(this::closeOrLog, "bobby-save-last-access");
     private boolean closed;
 
-    private final Long2LongMap accessMap;
-    private long now = timestampSeconds(); // caching this because we don't need it accurate, we need it fast
+    private final AccessMap regions;
+    private final AccessMap chunks;
+    private long journalSize;
+    private long snapshotSize;
+    private volatile long now = timestampSeconds(); // caching this because we don't need it accurate, we need it fast
 
     public LastAccessFile(Path directory) throws IOException {
         this.path = directory.resolve(FILE_NAME);
+        this.chunksPath = directory.resolve(CHUNKS_FILE_NAME);
+        this.journalPath = directory.resolve(JOURNAL_FILE_NAME);
+
+        Long2LongMap regionMap;
         try {
-            this.accessMap = read(path);
+            regionMap = read(path);
         } catch (Exception e) {
             throw new IOException("Error parsing " + path, e);
         }
+        Long2LongMap chunkMap;
+        try {
+            chunkMap = readChunks(chunksPath);
+        } catch (Exception e) {
+            // Not critical, chunks without timestamp fall back to the one of their region
+            LOGGER.error("Error parsing " + chunksPath + ":", e);
+            chunkMap = new Long2LongOpenHashMap();
+        }
+        replayJournal(journalPath, regionMap, chunkMap);
+
+        this.regions = new AccessMap(regionMap);
+        this.chunks = new AccessMap(chunkMap);
+        this.journalSize = Files.exists(journalPath) ? Files.size(journalPath) : 0;
+        this.snapshotSize = (Files.exists(path) ? Files.size(path) : 0) + (Files.exists(chunksPath) ? Files.size(chunksPath) : 0);
 
         if (Files.notExists(path)) {
             try (Stream<Path> stream = Files.list(directory)) {
                 for (Path path : (Iterable<Path>) (stream::iterator)) {
-                    Matcher matcher = REGION_FILE_PATTERN.matcher(path.getFileName().toString());
+                    String fileName = path.getFileName().toString();
+                    Matcher matcher = REGION_FILE_PATTERN.matcher(fileName);
+                    if (!matcher.matches()) {
+                        matcher = CompactRegionFile.FILE_PATTERN.matcher(fileName);
+                    }
                     if (matcher.matches()) {
                         touchRegion(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
                     }
                 }
             }
+            // Make sure the snapshot exists, so isEverythingOlderThan can rely on it
+            compact();
         }
 
         scheduleSave();
@@ -68,9 +113,12 @@ public class LastAccessFile implements Closeable {
     }
 
     public void touchRegion(int x, int z) {
-        synchronized (accessMap) {
-            accessMap.put(ChunkPos.toLong(x, z), now);
-        }
+        regions.touch(ChunkPos.toLong(x, z), now);
+    }
+
+    public void touchChunk(ChunkPos pos) {
+        touchRegion(pos.getRegionX(), pos.getRegionZ());
+        chunks.touch(pos.toLong(), now);
     }
 
     private void scheduleSave() {
@@ -89,25 +137,78 @@ public class LastAccessFile implements Closeable {
         }
     }
 
+    private void closeOrLog() {
+        try {
+            close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to save last access file at " + path + ":", e);
+        }
+    }
+
+    /**
+     * Appends all changes since the last save to the journal, merging the journal into the snapshot if it has grown
+     * too large.
+     */
     private synchronized void save() throws IOException {
         if (closed) return;
 
-        PacketByteBuf buf;
-        synchronized (accessMap) {
-            now = timestampSeconds(); // regularly update the time
+        now = timestampSeconds(); // regularly update the time
 
-            buf = new PacketByteBuf(Unpooled.buffer(accessMap.size() * 16));
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+        regions.drainChanges((key, time) -> writeJournalEntry(buf, JOURNAL_REGION, key, time));
+        chunks.drainChanges((key, time) -> writeJournalEntry(buf, JOURNAL_CHUNK, key, time));
 
-            // We are storing the most recent access time right at the start, so we can quickly scan all worlds
-            buf.writeVarLong(accessMap.values().longStream().max().orElse(0));
+        if (buf.writerIndex() > 0) {
+            Files.write(journalPath, buf.getWrittenBytes(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            journalSize += buf.writerIndex();
+        }
 
-            for (Long2LongMap.Entry entry : accessMap.long2LongEntrySet()) {
-                buf.writeVarInt(ChunkPos.getPackedX(entry.getLongKey()));
-                buf.writeVarInt(ChunkPos.getPackedZ(entry.getLongKey()));
-                buf.writeVarLong(entry.getLongValue());
-            }
+        if (journalSize > Math.max(MIN_JOURNAL_SIZE_FOR_COMPACTION, snapshotSize)) {
+            compact();
         }
+    }
 
+    /**
+     * Writes the full snapshot files and discards the journal.
+     */
+    private synchronized void compact() throws IOException {
+        // Anything still pending is part of the snapshot, no need to journal it
+        regions.drainChanges((key, time) -> {});
+        chunks.drainChanges((key, time) -> {});
+
+        Long2LongMap regionMap = regions.snapshot();
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer(regionMap.size() * 16));
+        // We are storing the most recent access time right at the start, so we can quickly scan all worlds
+        buf.writeVarLong(regionMap.values().longStream().max().orElse(0));
+        writeEntries(buf, regionMap);
+
+        PacketByteBuf chunksBuf = new PacketByteBuf(Unpooled.buffer());
+        writeEntries(chunksBuf, chunks.snapshot());
+
+        write(path, buf);
+        write(chunksPath, chunksBuf);
+        Files.deleteIfExists(journalPath);
+
+        snapshotSize = buf.writerIndex() + chunksBuf.writerIndex();
+        journalSize = 0;
+    }
+
+    private static void writeJournalEntry(PacketByteBuf buf, int type, long key, long time) {
+        buf.writeByte(type);
+        buf.writeVarInt(ChunkPos.getPackedX(key));
+        buf.writeVarInt(ChunkPos.getPackedZ(key));
+        buf.writeVarLong(time);
+    }
+
+    private static void writeEntries(PacketByteBuf buf, Long2LongMap map) {
+        for (Long2LongMap.Entry entry : map.long2LongEntrySet()) {
+            buf.writeVarInt(ChunkPos.getPackedX(entry.getLongKey()));
+            buf.writeVarInt(ChunkPos.getPackedZ(entry.getLongKey()));
+            buf.writeVarLong(entry.getLongValue());
+        }
+    }
+
+    private static void write(Path path, PacketByteBuf buf) throws IOException {
         Path tmpFile = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
         try {
             Files.write(tmpFile, buf.getWrittenBytes());
@@ -122,40 +223,134 @@ public class LastAccessFile implements Closeable {
         if (Files.exists(path)) {
             PacketByteBuf buf = new PacketByteBuf(Unpooled.wrappedBuffer(Files.readAllBytes(path)));
             buf.readVarLong(); // most recent timestamp
+            readEntries(buf, map);
+        }
+        return map;
+    }
+
+    private static Long2LongMap readChunks(Path path) throws IOException {
+        Long2LongMap map = new Long2LongOpenHashMap();
+        if (Files.exists(path)) {
+            readEntries(new PacketByteBuf(Unpooled.wrappedBuffer(Files.readAllBytes(path))), map);
+        }
+        return map;
+    }
+
+    private static void readEntries(PacketByteBuf buf, Long2LongMap map) {
+        while (buf.isReadable()) {
+            int x = buf.readVarInt();
+            int z = buf.readVarInt();
+            map.put(ChunkPos.toLong(x, z), buf.readVarLong());
+        }
+    }
+
+    /**
+     * Applies the journal (if any) on top of the given snapshot maps.
+     *
+     * @return the most recent timestamp in the journal
+     */
+    private static long replayJournal(Path journalPath, Long2LongMap regionMap, Long2LongMap chunkMap) throws IOException {
+        if (Files.notExists(journalPath)) {
+            return 0;
+        }
+        long mostRecent = 0;
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.wrappedBuffer(Files.readAllBytes(journalPath)));
+        try {
             while (buf.isReadable()) {
-                int x = buf.readVarInt();
-                int z = buf.readVarInt();
-                map.put(ChunkPos.toLong(x, z), buf.readVarLong());
+                int type = buf.readByte();
+                long key = ChunkPos.toLong(buf.readVarInt(), buf.readVarInt());
+                long time = buf.readVarLong();
+                Long2LongMap map = type == JOURNAL_CHUNK ? chunkMap : regionMap;
+                // Timestamps only ever go up, so if we crashed after compacting but before deleting the journal,
+                // replaying it must not undo any newer entries from the snapshot.
+                if (map.get(key) < time) {
+                    map.put(key, time);
+                }
+                mostRecent = Math.max(mostRecent, time);
             }
+        } catch (IndexOutOfBoundsException e) {
+            // Truncated final entry, most likely because the game crashed while appending to the journal
+            LOGGER.warn("Ignoring truncated entry at the end of " + journalPath);
         }
-        return map;
+        return mostRecent;
+    }
+
+    /**
+     * Reads the region access times of a folder which is not currently in use.
+     */
+    static Long2LongMap readRegionAccessTimes(Path directory) throws IOException {
+        Long2LongMap regionMap = read(directory.resolve(FILE_NAME));
+        replayJournal(directory.resolve(JOURNAL_FILE_NAME), regionMap, new Long2LongOpenHashMap());
+        return regionMap;
+    }
+
+    /**
+     * Reads the chunk access times of a folder which is not currently in use.
+     */
+    static Long2LongMap readChunkAccessTimes(Path directory) throws IOException {
+        Long2LongMap chunkMap = readChunks(directory.resolve(CHUNKS_FILE_NAME));
+        replayJournal(directory.resolve(JOURNAL_FILE_NAME), new Long2LongOpenHashMap(), chunkMap);
+        return chunkMap;
+    }
+
+    /**
+     * Removes the given chunks from the chunk access times of a folder which is not currently in use.
+     */
+    static void removeChunks(Path directory, LongSet chunks) throws IOException {
+        Path path = directory.resolve(FILE_NAME);
+        Path journalPath = directory.resolve(JOURNAL_FILE_NAME);
+        Long2LongMap regionMap = read(path);
+        Long2LongMap chunkMap = readChunks(directory.resolve(CHUNKS_FILE_NAME));
+        replayJournal(journalPath, regionMap, chunkMap);
+
+        chunkMap.keySet().removeAll(chunks);
+
+        // The journal needs to be merged, otherwise replaying it would bring back the removed chunks
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer(regionMap.size() * 16));
+        buf.writeVarLong(regionMap.values().longStream().max().orElse(0));
+        writeEntries(buf, regionMap);
+        PacketByteBuf chunksBuf = new PacketByteBuf(Unpooled.buffer(chunkMap.size() * 12));
+        writeEntries(chunksBuf, chunkMap);
+
+        write(path, buf);
+        write(directory.resolve(CHUNKS_FILE_NAME), chunksBuf);
+        Files.deleteIfExists(journalPath);
     }
 
     @Override
     public synchronized void close() throws IOException {
         if (closed) return;
 
-        save();
+        compact();
 
-        Runtime.getRuntime().removeShutdownHook(finalSaveThread);
+        try {
+            Runtime.getRuntime().removeShutdownHook(finalSaveThread);
+        } catch (IllegalStateException ignored) {
+            // we are the shutdown hook
+        }
 
         closed = true;
     }
 
     public LongList pollRegionsOlderThan(long days) {
-        synchronized (accessMap) {
-            long timestamp = timestampSeconds() - days * 24 * 60 * 60;
-            LongList list = new LongArrayList();
-            accessMap.long2LongEntrySet().removeIf(it -> {
-                if (it.getLongValue() <= timestamp) {
-                    list.add(it.getLongKey());
-                    return true;
-                } else {
-                    return false;
-                }
-            });
-            return list;
+        long timestamp = timestampSeconds() - days * 24 * 60 * 60;
+        LongList list = new LongArrayList();
+        regions.removeIf((key, time) -> {
+            if (time <= timestamp) {
+                list.add(key);
+                return true;
+            } else {
+                return false;
+            }
+        });
+        if (!list.isEmpty()) {
+            LongSet polled = new LongOpenHashSet(list);
+            chunks.removeIf((chunk, time) -> polled.contains(ChunkPos.toLong(
+                    ChunkPos.getPackedX(chunk) >> 5,
+                    ChunkPos.getPackedZ(chunk) >> 5
+            )));
         }
+        return list;
     }
 
     public static boolean isEverythingOlderThan(Path directory, long days) throws IOException {
@@ -179,10 +374,97 @@ public class LastAccessFile implements Closeable {
         }
         long mostRecentTimestamp = new PacketByteBuf(buffer).readVarLong();
 
+        // Anything more recent will be in the journal (which is small, so we can just read all of it)
+        mostRecentTimestamp = Math.max(mostRecentTimestamp, replayJournal(
+                directory.resolve(JOURNAL_FILE_NAME), new Long2LongOpenHashMap(), new Long2LongOpenHashMap()));
+
         return mostRecentTimestamp <= timestampSeconds() - days * 24 * 60 * 60;
     }
 
     private static long timestampSeconds() {
         return Util.getEpochTimeMs() / 1000;
     }
+
+    private interface EntryConsumer {
+        void accept(long key, long time);
+    }
+
+    private interface EntryPredicate {
+        boolean test(long key, long time);
+    }
+
+    /**
+     * Access time map split into independently locked stripes, so concurrent touches from the loading and saving
+     * threads rarely contend. Each stripe also tracks which entries changed since they were last journaled.
+     */
+    private static class AccessMap {
+        private static final int STRIPES = 16;
+
+        private final Stripe[] stripes = new Stripe[STRIPES];
+
+        AccessMap(Long2LongMap initial) {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new Stripe();
+            }
+            for (Long2LongMap.Entry entry : initial.long2LongEntrySet()) {
+                stripe(entry.getLongKey()).values.put(entry.getLongKey(), entry.getLongValue());
+            }
+        }
+
+        private Stripe stripe(long key) {
+            return stripes[(int) HashCommon.mix(key) & (STRIPES - 1)];
+        }
+
+        void touch(long key, long time) {
+            Stripe stripe = stripe(key);
+            synchronized (stripe) {
+                // Most touches are repeats within the same minute, those do not need to be journaled again
+                if (stripe.values.put(key, time) != time) {
+                    stripe.changes.put(key, time);
+                }
+            }
+        }
+
+        void drainChanges(EntryConsumer consumer) {
+            for (Stripe stripe : stripes) {
+                Long2LongMap changes;
+                synchronized (stripe) {
+                    if (stripe.changes.isEmpty()) {
+                        continue;
+                    }
+                    changes = stripe.changes;
+                    stripe.changes = new Long2LongOpenHashMap();
+                }
+                for (Long2LongMap.Entry entry : changes.long2LongEntrySet()) {
+                    consumer.accept(entry.getLongKey(), entry.getLongValue());
+                }
+            }
+        }
+
+        Long2LongMap snapshot() {
+            Long2LongMap result = new Long2LongOpenHashMap();
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    result.putAll(stripe.values);
+                }
+            }
+            return result;
+        }
+
+        void removeIf(EntryPredicate predicate) {
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    LongPredicate removed = key -> predicate.test(key, stripe.values.get(key));
+                    stripe.values.keySet().removeIf(removed);
+                    LongPredicate stale = key -> !stripe.values.containsKey(key);
+                    stripe.changes.keySet().removeIf(stale);
+                }
+            }
+        }
+
+        private static class Stripe {
+            private final Long2LongMap values = new Long2LongOpenHashMap();
+            private Long2LongMap changes = new Long2LongOpenHashMap();
+        }
+    }
 }
@@ -0,0 +1,192 @@
+package de.johni0702.minecraft.bobby;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.util.math.ChunkPos;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Read-only access to vanilla region files which memory-maps each file and parses its sector table once, so chunks
+ * can be read and decompressed concurrently on the calling threads instead of going through the single io worker.
+ *
+ * Writes still go through the io worker. Whoever performs them must call {@link #invalidate} for the affected region
+ * once a write has been completed, so the next read picks up the new sector table.
+ */
+public class MappedRegionReader implements Closeable {
+    private static final int SECTOR_SIZE = 4096;
+    private static final int HEADER_SIZE = SECTOR_SIZE * 2;
+
+    private static final int COMPRESSION_GZIP = 1;
+    private static final int COMPRESSION_DEFLATE = 2;
+    private static final int COMPRESSION_NONE = 3;
+    private static final int COMPRESSION_EXTERNAL_FLAG = 128;
+
+    private static final MappedRegion MISSING = new MappedRegion(null, new int[0]);
+
+    private final Path directory;
+    // Both guarded by synchronizing on [regions]
+    private final Long2ObjectMap<MappedRegion> regions = new Long2ObjectOpenHashMap<>();
+    // Bumped whenever a region is invalidated, so a mapping which was created concurrently with a write (and may
+    // therefore be stale) does not get cached
+    private final Long2IntMap generations = new Long2IntOpenHashMap();
+    private volatile boolean closed;
+
+    public MappedRegionReader(Path directory) {
+        this.directory = directory;
+    }
+
+    public Optional<NbtCompound> read(ChunkPos pos) throws IOException {
+        MappedRegion region = getRegion(pos.getRegionX(), pos.getRegionZ());
+        if (region == MISSING) {
+            return Optional.empty();
+        }
+
+        int location = region.locations[(pos.getRegionRelativeX() & 31) + (pos.getRegionRelativeZ() & 31) * 32];
+        if (location == 0) {
+            return Optional.empty();
+        }
+        int sectorOffset = location >>> 8;
+        int sectorCount = location & 0xff;
+
+        ByteBuffer buffer = region.buffer.duplicate();
+        long start = (long) sectorOffset * SECTOR_SIZE;
+        if (start + 5 > buffer.capacity()) {
+            throw new IOException("Chunk " + pos + " points outside of its region file");
+        }
+        buffer.position((int) start);
+        int length = buffer.getInt();
+        int compression = buffer.get() & 0xff;
+
+        if ((compression & COMPRESSION_EXTERNAL_FLAG) != 0) {
+            Path externalFile = directory.resolve("c." + pos.x + "." + pos.z + ".mcc");
+            try (InputStream in = Files.newInputStream(externalFile)) {
+                return Optional.of(readNbt(compression & ~COMPRESSION_EXTERNAL_FLAG, in));
+            }
+        }
+
+        if (length <= 1 || length > sectorCount * SECTOR_SIZE || start + 4 + length > buffer.capacity()) {
+            throw new IOException("Chunk " + pos + " has invalid length " + length);
+        }
+        buffer.limit((int) start + 4 + length);
+        return Optional.of(readNbt(compression, new ByteBufferInputStream(buffer.slice())));
+    }
+
+    /**
+     * Drops the cached mapping and sector table of the given region. Must be called after the region was written to.
+     */
+    public void invalidate(int regionX, int regionZ) {
+        long key = ChunkPos.toLong(regionX, regionZ);
+        synchronized (regions) {
+            regions.remove(key);
+            generations.addTo(key, 1);
+        }
+    }
+
+    private MappedRegion getRegion(int regionX, int regionZ) throws IOException {
+        long key = ChunkPos.toLong(regionX, regionZ);
+        MappedRegion region;
+        int generation;
+        synchronized (regions) {
+            region = regions.get(key);
+            generation = generations.get(key);
+        }
+        if (region == null) {
+            // Mapping outside the lock, so readers of other regions are not held up
+            region = map(directory.resolve("r." + regionX + "." + regionZ + ".mca"));
+            synchronized (regions) {
+                if (!closed && generations.get(key) == generation) {
+                    regions.put(key, region);
+                }
+            }
+        }
+        return region;
+    }
+
+    private static MappedRegion map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return MISSING;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+            int[] locations = new int[1024];
+            buffer.asIntBuffer().get(locations);
+            return new MappedRegion(buffer, locations);
+        } catch (NoSuchFileException e) {
+            return MISSING;
+        }
+    }
+
+    private static NbtCompound readNbt(int compression, InputStream rawIn) throws IOException {
+        InputStream in = switch (compression) {
+            case COMPRESSION_GZIP -> new GZIPInputStream(rawIn);
+            case COMPRESSION_DEFLATE -> new InflaterInputStream(rawIn);
+            case COMPRESSION_NONE -> rawIn;
+            default -> throw new IOException("Unknown compression type " + compression);
+        };
+        try (DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in))) {
+            return NbtIo.read(dataIn);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        // There is no way to explicitly unmap a buffer, dropping all references is the best we can do. The files stay
+        // mapped until the buffers are garbage collected, which is why this reader must not be used on Windows, where
+        // mapped files cannot be deleted or replaced.
+        synchronized (regions) {
+            regions.clear();
+        }
+    }
+
+    private record MappedRegion(@Nullable ByteBuffer buffer, int[] locations) {
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
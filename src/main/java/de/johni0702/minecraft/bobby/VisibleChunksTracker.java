@@ -1,11 +1,22 @@
 package de.johni0702.minecraft.bobby;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import net.minecraft.util.math.ChunkPos;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.function.LongConsumer;
 
 public class VisibleChunksTracker {
     private int centerX, centerZ, viewDistance;
+    // Whether to use a circle instead of a square, see [isWithinDistance]. Takes effect on the next update.
+    private boolean circular;
+    // For each x offset from the center, the maximum z offset which is still in view distance (or -1 if none is)
+    private int[] extents = computeExtents(0, false);
+    private boolean extentsCircular;
+
+    // Re-used between updates which report changes via callbacks
+    private final LongArrayList unloadedScratch = new LongArrayList();
+    private final LongArrayList loadedScratch = new LongArrayList();
 
     public void updateCenter(int centerX, int centerZ, LongConsumer unload, LongConsumer load) {
         update(centerX, centerZ, viewDistance, unload, load);
@@ -16,43 +27,134 @@ public class VisibleChunksTracker {
     }
 
     public void update(int newCenterX, int newCenterZ, int newViewDistance, LongConsumer unload, LongConsumer load) {
+        LongArrayList unloaded = unload != null ? unloadedScratch : null;
+        LongArrayList loaded = load != null ? loadedScratch : null;
+        updateAndCollect(newCenterX, newCenterZ, newViewDistance, unloaded, loaded);
+        try {
+            if (unloaded != null) {
+                for (int i = 0; i < unloaded.size(); i++) {
+                    unload.accept(unloaded.getLong(i));
+                }
+            }
+            if (loaded != null) {
+                for (int i = 0; i < loaded.size(); i++) {
+                    load.accept(loaded.getLong(i));
+                }
+            }
+        } finally {
+            unloadedScratch.clear();
+            loadedScratch.clear();
+        }
+    }
+
+    /**
+     * Same as {@link #update(int, int, int, LongConsumer, LongConsumer)} but appends the positions of all chunks which
+     * have left / entered view distance to the given lists instead.
+     */
+    public void updateAndCollect(int newCenterX, int newCenterZ, int newViewDistance, @Nullable LongArrayList unloaded, @Nullable LongArrayList loaded) {
         int oldCenterX = this.centerX;
         int oldCenterZ = this.centerZ;
-        int oldViewDistance = this.viewDistance;
-        if (oldCenterX != newCenterX || oldCenterZ != newCenterZ || oldViewDistance != newViewDistance) {
-            if (unload != null) {
-                for (int x = oldCenterX - oldViewDistance; x <= oldCenterX + oldViewDistance; x++) {
-                    boolean xOutsideNew = x < newCenterX - newViewDistance || x > newCenterX + newViewDistance;
-                    for (int z = oldCenterZ - oldViewDistance; z <= oldCenterZ + oldViewDistance; z++) {
-                        boolean zOutsideNew = z < newCenterZ - newViewDistance || z > newCenterZ + newViewDistance;
-                        if (xOutsideNew || zOutsideNew) {
-                            unload.accept(ChunkPos.toLong(x, z));
-                        }
-                    }
-                }
+        int[] oldExtents = this.extents;
+        int[] newExtents = newViewDistance == viewDistance && circular == extentsCircular
+                ? oldExtents
+                : computeExtents(newViewDistance, circular);
+        if (oldCenterX != newCenterX || oldCenterZ != newCenterZ || oldExtents != newExtents) {
+            if (unloaded != null) {
+                collectOutside(oldCenterX, oldCenterZ, oldExtents, newCenterX, newCenterZ, newExtents, unloaded);
             }
 
-            if (load != null) {
-                for (int x = newCenterX - newViewDistance; x <= newCenterX + newViewDistance; x++) {
-                    boolean xOutsideOld = x < oldCenterX - oldViewDistance || x > oldCenterX + oldViewDistance;
-                    for (int z = newCenterZ - newViewDistance; z <= newCenterZ + newViewDistance; z++) {
-                        boolean zOutsideOld = z < oldCenterZ - oldViewDistance || z > oldCenterZ + oldViewDistance;
-                        if (xOutsideOld || zOutsideOld) {
-                            load.accept(ChunkPos.toLong(x, z));
-                        }
-                    }
-                }
+            if (loaded != null) {
+                collectOutside(newCenterX, newCenterZ, newExtents, oldCenterX, oldCenterZ, oldExtents, loaded);
             }
 
             this.centerX = newCenterX;
             this.centerZ = newCenterZ;
             this.viewDistance = newViewDistance;
+            this.extents = newExtents;
+            this.extentsCircular = circular;
+        }
+    }
+
+    public void setCircular(boolean circular) {
+        this.circular = circular;
+    }
+
+    /**
+     * Whether a chunk at the given offset from the center is within the given distance.
+     *
+     * In circular mode, this is the same cylindrical distance check newer versions of vanilla use for their chunk map
+     * (excluding the edge), i.e. chunks are in view distance if their closest corner is within the circle.
+     */
+    public static boolean isWithinDistance(int offsetX, int offsetZ, int distance, boolean circular) {
+        int x = Math.abs(offsetX);
+        int z = Math.abs(offsetZ);
+        if (!circular) {
+            return x <= distance && z <= distance;
         }
+        long closestX = Math.max(0, x - 1);
+        long closestZ = Math.max(0, z - 1);
+        return closestX * closestX + closestZ * closestZ < (long) distance * distance;
+    }
+
+    private static int[] computeExtents(int distance, boolean circular) {
+        int[] extents = new int[distance + 1];
+        for (int x = 0; x <= distance; x++) {
+            int z = distance;
+            while (z >= 0 && !isWithinDistance(x, z, distance, circular)) {
+                z--;
+            }
+            extents[x] = z;
+        }
+        return extents;
+    }
+
+    /**
+     * Collects all chunks which are in area A but not in area B (see [extents] for how they are described).
+     *
+     * Rather than checking every chunk in A, this only visits the parts of each column of A which lie outside of B, so
+     * the usual case of moving by a single chunk costs one strip instead of the whole area.
+     */
+    private static void collectOutside(int aX, int aZ, int[] aExtents, int bX, int bZ, int[] bExtents, LongArrayList out) {
+        int aDistance = aExtents.length - 1;
+        for (int x = aX - aDistance; x <= aX + aDistance; x++) {
+            int aExtent = aExtents[Math.abs(x - aX)];
+            if (aExtent < 0) {
+                continue;
+            }
+            int aMinZ = aZ - aExtent;
+            int aMaxZ = aZ + aExtent;
+
+            int bOffsetX = Math.abs(x - bX);
+            int bExtent = bOffsetX < bExtents.length ? bExtents[bOffsetX] : -1;
+            int bMinZ = bZ - bExtent;
+            int bMaxZ = bZ + bExtent;
+            if (bExtent < 0 || bMinZ > aMaxZ || bMaxZ < aMinZ) {
+                // Whole column is outside of B
+                for (int z = aMinZ; z <= aMaxZ; z++) {
+                    out.add(ChunkPos.toLong(x, z));
+                }
+            } else {
+                // Only the parts below and above B
+                for (int z = aMinZ; z < bMinZ; z++) {
+                    out.add(ChunkPos.toLong(x, z));
+                }
+                for (int z = bMaxZ + 1; z <= aMaxZ; z++) {
+                    out.add(ChunkPos.toLong(x, z));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the last update was for the given center and view distance, i.e. another one would be a no-op
+     */
+    public boolean isCenteredAt(int centerX, int centerZ, int viewDistance) {
+        return this.centerX == centerX && this.centerZ == centerZ && this.viewDistance == viewDistance
+                && circular == extentsCircular;
     }
 
     public boolean isInViewDistance(int x, int z) {
-        boolean xInside = x >= centerX - viewDistance && x <= centerX + viewDistance;
-        boolean zInside = z >= centerZ - viewDistance && z <= centerZ + viewDistance;
-        return xInside && zInside;
+        int offsetX = Math.abs(x - centerX);
+        return offsetX < extents.length && Math.abs(z - centerZ) <= extents[offsetX];
     }
 }
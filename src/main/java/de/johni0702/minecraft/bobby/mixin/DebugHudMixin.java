@@ -0,0 +1,39 @@
+package de.johni0702.minecraft.bobby.mixin;
+
+import de.johni0702.minecraft.bobby.FakeChunkManager;
+import de.johni0702.minecraft.bobby.ext.ClientChunkManagerExt;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gui.hud.DebugHud;
+import net.minecraft.client.world.ClientWorld;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.util.List;
+
+@Mixin(DebugHud.class)
+public abstract class DebugHudMixin {
+
+    @Shadow
+    @Final
+    private MinecraftClient client;
+
+    // Only a short summary fits on the client chunk cache line (see ClientChunkManagerMixin), the rest goes on its own
+    @Inject(method = "getLeftText", at = @At("RETURN"))
+    private void bobbyDetailedDebugText(CallbackInfoReturnable<List<String>> cir) {
+        ClientWorld world = this.client.world;
+        if (world == null) {
+            return;
+        }
+
+        FakeChunkManager bobbyChunkManager = ((ClientChunkManagerExt) world.getChunkManager()).bobby_getFakeChunkManager();
+        if (bobbyChunkManager == null) {
+            return;
+        }
+
+        cir.getReturnValue().add(bobbyChunkManager.getDetailedDebugString());
+    }
+}
@@ -1,8 +1,10 @@
 package de.johni0702.minecraft.bobby.mixin;
 
+import de.johni0702.minecraft.bobby.BobbyConfig;
 import de.johni0702.minecraft.bobby.FakeChunkManager;
 import de.johni0702.minecraft.bobby.FakeChunkStorage;
 import de.johni0702.minecraft.bobby.ext.ClientChunkManagerExt;
+import de.johni0702.minecraft.bobby.util.FrameBudget;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.option.GameOptions;
 import net.minecraft.client.world.ClientWorld;
@@ -12,6 +14,7 @@ import org.jetbrains.annotations.Nullable;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
@@ -24,6 +27,9 @@ public abstract class MinecraftClientMixin {
 
     @Shadow @Nullable public ClientWorld world;
 
+    @Unique
+    private final FrameBudget bobbyFrameBudget = new FrameBudget();
+
     @Inject(method = "render", at = @At(value = "CONSTANT", args = "stringValue=tick"))
     private void bobbyUpdate(CallbackInfo ci) {
         if (world == null) {
@@ -36,11 +42,18 @@ public abstract class MinecraftClientMixin {
 
         profiler.push("bobbyUpdate");
 
-        int maxFps = options.getMaxFps().getValue();
-        long frameTime = 1_000_000_000 / (maxFps == GameOptions.MAX_FRAMERATE ? 120 : maxFps);
-        // Arbitrarily choosing 1/4 of frame time as our max budget, that way we're hopefully not noticeable.
-        long frameBudget = frameTime / 4;
-        long timeLimit = Util.getMeasuringTimeNano() + frameBudget;
+        long targetFrameTime;
+        int targetFrameTimeMs = BobbyConfig.getTargetFrameTimeMs();
+        if (targetFrameTimeMs > 0) {
+            targetFrameTime = targetFrameTimeMs * 1_000_000L;
+        } else {
+            int maxFps = options.getMaxFps().getValue();
+            targetFrameTime = 1_000_000_000 / (maxFps == GameOptions.MAX_FRAMERATE ? 120 : maxFps);
+        }
+        // Starts out at 1/4 of the target frame time, then adapts to how long frames actually take
+        long now = Util.getMeasuringTimeNano();
+        long frameBudget = bobbyFrameBudget.update(now, targetFrameTime, BobbyConfig.getTargetFrameTimePercentile());
+        long timeLimit = now + frameBudget;
         bobbyChunkManager.update(false, () -> Util.getMeasuringTimeNano() < timeLimit);
 
         profiler.pop();
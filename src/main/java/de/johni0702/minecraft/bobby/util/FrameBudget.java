@@ -0,0 +1,68 @@
+package de.johni0702.minecraft.bobby.util;
+
+import java.util.Arrays;
+
+/**
+ * Determines how much time we may spend on the main thread each frame, based on how long recent frames actually took.
+ *
+ * If the configured percentile of recent frame times is below the target, the budget is increased slowly, otherwise it
+ * is cut in half (additive increase, multiplicative decrease), so we back off quickly when the game is struggling but
+ * use the headroom when there is some.
+ */
+public class FrameBudget {
+    private static final int SAMPLES = 120;
+    // Frames longer than this are most likely not representative (e.g. game paused or loading screen)
+    private static final long MAX_SAMPLE = 1_000_000_000;
+
+    private final long[] samples = new long[SAMPLES];
+    private final long[] sorted = new long[SAMPLES];
+    private int sampleCount;
+    private int nextSample;
+    private long lastFrameStart;
+    private long budget = -1;
+
+    /**
+     * To be called once at the same point in every frame.
+     *
+     * @param now current time in nanoseconds
+     * @param targetFrameTime target frame time in nanoseconds
+     * @param percentile which percentile of frame times (0-100) should be within the target
+     * @return the time in nanoseconds we may spend in this frame
+     */
+    public long update(long now, long targetFrameTime, int percentile) {
+        long minBudget = targetFrameTime / 32;
+        long maxBudget = targetFrameTime / 2;
+        if (budget < 0) {
+            budget = targetFrameTime / 4;
+        }
+
+        long frameTime = now - lastFrameStart;
+        lastFrameStart = now;
+        if (frameTime <= 0 || frameTime > MAX_SAMPLE) {
+            return clamp(budget, minBudget, maxBudget);
+        }
+
+        samples[nextSample] = frameTime;
+        nextSample = (nextSample + 1) % SAMPLES;
+        sampleCount = Math.min(sampleCount + 1, SAMPLES);
+
+        System.arraycopy(samples, 0, sorted, 0, sampleCount);
+        Arrays.sort(sorted, 0, sampleCount);
+        int index = Math.min(sampleCount - 1, Math.max(0, sampleCount * Math.min(Math.max(percentile, 0), 100) / 100));
+        long percentileFrameTime = sorted[index];
+
+        if (percentileFrameTime <= targetFrameTime) {
+            budget += Math.max(1, targetFrameTime / 200);
+        } else if (frameTime > targetFrameTime) {
+            // Only back off if the current frame is slow as well, otherwise we would keep halving the budget for as
+            // long as a single slow frame stays within the window
+            budget /= 2;
+        }
+        budget = clamp(budget, minBudget, maxBudget);
+        return budget;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,71 @@
+package de.johni0702.minecraft.bobby.util;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Executes tasks on a fixed number of single-threaded lanes, where the lane is picked based on a key.
+ * Tasks with the same key therefore run in submission order, while tasks with different keys may run in parallel.
+ *
+ * The total number of queued and running tasks is bounded; once the limit is reached, {@link #tryExecute(long, Runnable)}
+ * rejects further tasks (without blocking) and {@link #execute(long, Runnable)} blocks until a task has finished.
+ */
+public class LaneExecutor {
+    private final ExecutorService[] lanes;
+    private final int maxQueuedTasks;
+    private final Semaphore permits;
+
+    public LaneExecutor(String name, int lanes, int maxQueuedTasks) {
+        this.lanes = new ExecutorService[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = Executors.newSingleThreadExecutor(new DefaultThreadFactory(name + "-" + i, true));
+        }
+        this.maxQueuedTasks = maxQueuedTasks;
+        this.permits = new Semaphore(maxQueuedTasks);
+    }
+
+    /**
+     * @return {@code false} if the task was not accepted because too many tasks are already queued
+     */
+    public boolean tryExecute(long key, Runnable task) {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+        submit(key, task);
+        return true;
+    }
+
+    /**
+     * Same as {@link #tryExecute(long, Runnable)} but waits for room instead of rejecting the task.
+     */
+    public void execute(long key, Runnable task) {
+        permits.acquireUninterruptibly();
+        submit(key, task);
+    }
+
+    private void submit(long key, Runnable task) {
+        try {
+            lanes[(int) Long.remainderUnsigned(HashCommon.mix(key), lanes.length)].execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (Throwable t) {
+            permits.release();
+            throw t;
+        }
+    }
+
+    /**
+     * @return approximate number of tasks which are queued or currently running
+     */
+    public int getQueuedTasks() {
+        return maxQueuedTasks - permits.availablePermits();
+    }
+}
@@ -0,0 +1,177 @@
+package de.johni0702.minecraft.bobby.util;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hash map from long keys to objects which may be modified by a single thread while being read from any number of
+ * threads without any locking.
+ *
+ * Uses open addressing with linear probing. A slot, once claimed by a key, keeps that key until the table is rebuilt;
+ * removal merely replaces the value with a tombstone (which is re-used if the same key is added again, as is common for
+ * chunks going in and out of view distance). The table is rebuilt into a fresh one (and then published as a whole)
+ * once too many slots have been claimed.
+ *
+ * Readers always see a consistent table, though whether they see a concurrent modification is of course up to timing.
+ * All modifications must happen on the same thread (or be externally synchronized).
+ */
+public class SingleWriterLong2ObjectMap<V> {
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final Object TOMBSTONE = new Object();
+    private static final int MIN_CAPACITY = 16;
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    // Only accessed by the writer
+    private int claimed;
+    private volatile int size;
+
+    public V get(long key) {
+        Table table = this.table;
+        int mask = table.keys.length - 1;
+        for (int i = (int) HashCommon.mix(key) & mask; ; i = (i + 1) & mask) {
+            Object value = VALUES.getAcquire(table.values, i);
+            if (value == null) {
+                return null;
+            }
+            // Keys are written before their slot's first value is released, and never change afterwards
+            if (table.keys[i] == key) {
+                return value == TOMBSTONE ? null : cast(value);
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the previous value, or {@code null} if there was none
+     */
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+
+        Table table = this.table;
+        int mask = table.keys.length - 1;
+        int i = (int) HashCommon.mix(key) & mask;
+        while (true) {
+            Object current = table.values[i];
+            if (current == null) {
+                break;
+            }
+            if (table.keys[i] == key) {
+                VALUES.setRelease(table.values, i, value);
+                if (current == TOMBSTONE) {
+                    size++;
+                    return null;
+                }
+                return cast(current);
+            }
+            i = (i + 1) & mask;
+        }
+
+        table.keys[i] = key;
+        VALUES.setRelease(table.values, i, value);
+        size++;
+        if (++claimed > table.keys.length / 4 * 3) {
+            rebuild();
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value, or {@code null} if there was none
+     */
+    public V remove(long key) {
+        Table table = this.table;
+        int mask = table.keys.length - 1;
+        for (int i = (int) HashCommon.mix(key) & mask; ; i = (i + 1) & mask) {
+            Object current = table.values[i];
+            if (current == null) {
+                return null;
+            }
+            if (table.keys[i] == key) {
+                if (current == TOMBSTONE) {
+                    return null;
+                }
+                VALUES.setRelease(table.values, i, TOMBSTONE);
+                size--;
+                return cast(current);
+            }
+        }
+    }
+
+    public void forEach(EntryConsumer<? super V> consumer) {
+        Table table = this.table;
+        for (int i = 0; i < table.keys.length; i++) {
+            Object value = VALUES.getAcquire(table.values, i);
+            if (value != null && value != TOMBSTONE) {
+                consumer.accept(table.keys[i], cast(value));
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of all values currently in the map
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<>(size);
+        forEach((key, value) -> values.add(value));
+        return values;
+    }
+
+    private void rebuild() {
+        Table oldTable = this.table;
+        // Leave plenty of room, so we do not have to rebuild again right away
+        Table newTable = new Table(Math.max(MIN_CAPACITY, HashCommon.nextPowerOfTwo(size * 4)));
+        int mask = newTable.keys.length - 1;
+        for (int j = 0; j < oldTable.keys.length; j++) {
+            Object value = oldTable.values[j];
+            if (value == null || value == TOMBSTONE) {
+                continue;
+            }
+            long key = oldTable.keys[j];
+            int i = (int) HashCommon.mix(key) & mask;
+            while (newTable.values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            newTable.keys[i] = key;
+            newTable.values[i] = value;
+        }
+        claimed = size;
+        // Volatile write publishes the whole table
+        this.table = newTable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    private static class Table {
+        private final long[] keys;
+        private final Object[] values;
+
+        private Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+        }
+    }
+}
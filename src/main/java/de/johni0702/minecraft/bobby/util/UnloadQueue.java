@@ -0,0 +1,152 @@
+package de.johni0702.minecraft.bobby.util;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * FIFO queue of packed chunk positions, each with the time at which it was queued, which supports removing arbitrary
+ * positions in constant time.
+ *
+ * Entries are stored in a ring buffer of primitive arrays, with a map from position to slot for removal. Removed
+ * entries are merely marked as such and skipped when they reach the head of the queue, or dropped when the buffer
+ * needs to be compacted. The map is sized for the full capacity of the buffer, so it never needs to be rehashed either,
+ * and other than when growing the buffer (and with it the map), no allocations happen.
+ *
+ * Times must be added in non-decreasing order, which is trivially the case when using the current time.
+ */
+public class UnloadQueue {
+    private static final long REMOVED = Long.MIN_VALUE;
+
+    private long[] positions;
+    private long[] times;
+    private int head;
+    // Number of slots in use, including removed ones
+    private int used;
+    private Long2IntMap slots;
+
+    public UnloadQueue() {
+        this(64);
+    }
+
+    public UnloadQueue(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1;
+        positions = new long[capacity];
+        times = new long[capacity];
+        slots = createSlots(capacity);
+    }
+
+    /**
+     * Adds the given position at the end of the queue. If it was already queued, its previous entry is removed.
+     */
+    public void add(long pos, long time) {
+        remove(pos);
+
+        if (used == positions.length) {
+            makeRoom();
+        }
+
+        int slot = (head + used) & (positions.length - 1);
+        positions[slot] = pos;
+        times[slot] = time;
+        used++;
+        slots.put(pos, slot);
+    }
+
+    /**
+     * @return whether the position was queued
+     */
+    public boolean remove(long pos) {
+        int slot = slots.remove(pos);
+        if (slot == -1) {
+            return false;
+        }
+        times[slot] = REMOVED;
+        return true;
+    }
+
+    public boolean contains(long pos) {
+        return slots.containsKey(pos);
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    public boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    /**
+     * @return the time of the first entry in the queue, or {@link Long#MAX_VALUE} if the queue is empty
+     */
+    public long firstTime() {
+        skipRemoved();
+        return used == 0 ? Long.MAX_VALUE : times[head];
+    }
+
+    /**
+     * Removes the first entry from the queue.
+     *
+     * @return its position
+     * @throws IllegalStateException if the queue is empty
+     */
+    public long removeFirst() {
+        skipRemoved();
+        if (used == 0) {
+            throw new IllegalStateException("Queue is empty");
+        }
+        long pos = positions[head];
+        slots.remove(pos);
+        head = (head + 1) & (positions.length - 1);
+        used--;
+        return pos;
+    }
+
+    private void skipRemoved() {
+        while (used > 0 && times[head] == REMOVED) {
+            head = (head + 1) & (positions.length - 1);
+            used--;
+        }
+    }
+
+    private static Long2IntMap createSlots(int capacity) {
+        // Since the expected size is also the minimum size, the map never rehashes (neither to grow nor to shrink)
+        Long2IntMap slots = new Long2IntOpenHashMap(capacity);
+        slots.defaultReturnValue(-1);
+        return slots;
+    }
+
+    private void makeRoom() {
+        long[] newPositions = positions;
+        long[] newTimes = times;
+        Long2IntMap newSlots = slots;
+        int newHead = head;
+        // If most of the slots are taken up by removed entries, compacting in place is enough, otherwise we need to grow
+        if (slots.size() * 2 > positions.length) {
+            newPositions = new long[positions.length * 2];
+            newTimes = new long[positions.length * 2];
+            newSlots = createSlots(positions.length * 2);
+            newHead = 0;
+        }
+        int mask = positions.length - 1;
+        int newMask = newPositions.length - 1;
+        int count = 0;
+        for (int i = 0; i < used; i++) {
+            int slot = (head + i) & mask;
+            if (times[slot] == REMOVED) {
+                continue;
+            }
+            // When compacting in place, we never write ahead of where we read, so this is safe
+            int newSlot = (newHead + count) & newMask;
+            newPositions[newSlot] = positions[slot];
+            newTimes[newSlot] = times[slot];
+            newSlots.put(positions[slot], newSlot);
+            count++;
+        }
+        positions = newPositions;
+        times = newTimes;
+        slots = newSlots;
+        head = newHead;
+        used = count;
+    }
+}
@@ -0,0 +1,147 @@
+package de.johni0702.minecraft.bobby;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * Compares {@link VisibleChunksTracker#updateAndCollect} with the full-square scan it replaced, for the kinds of moves
+ * the client makes: walking one chunk at a time, walking diagonally, teleporting and changing the view distance.
+ *
+ * Both implementations are also checked to report the same chunks, so a broken diff cannot look fast.
+ *
+ * Run via its main method, there are no arguments.
+ */
+public class VisibleChunksTrackerBenchmark {
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int ITERATIONS = 100_000;
+
+    private interface Move {
+        /**
+         * @return center x, center z and view distance for the given step
+         */
+        int[] at(int step, int viewDistance);
+    }
+
+    public static void main(String[] args) {
+        Move step = (i, r) -> new int[]{ i, 0, r };
+        Move diagonal = (i, r) -> new int[]{ i, i, r };
+        Move teleport = (i, r) -> new int[]{ (i % 2) * 10_000, 0, r };
+        Move viewDistance = (i, r) -> new int[]{ 0, 0, r - (i % 2) * 8 };
+
+        for (int r : new int[]{ 32, 64 }) {
+            run("step", step, r);
+            run("diagonal", diagonal, r);
+            run("teleport", teleport, r);
+            run("view distance", viewDistance, r);
+        }
+    }
+
+    private static void run(String name, Move move, int r) {
+        verify(move, r);
+
+        VisibleChunksTracker tracker = new VisibleChunksTracker();
+        FullScan fullScan = new FullScan();
+        LongArrayList unloaded = new LongArrayList();
+        LongArrayList loaded = new LongArrayList();
+
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += runTracker(tracker, move.at(i, r), unloaded, loaded);
+            sink += runFullScan(fullScan, move.at(i, r), unloaded, loaded);
+        }
+
+        long trackerNanos = 0;
+        long fullScanNanos = 0;
+        long chunks = 0;
+        for (int i = WARMUP_ITERATIONS; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            int[] target = move.at(i, r);
+            long start = System.nanoTime();
+            chunks += runTracker(tracker, target, unloaded, loaded);
+            trackerNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            sink += runFullScan(fullScan, target, unloaded, loaded);
+            fullScanNanos += System.nanoTime() - start;
+        }
+
+        System.out.printf("r=%-3d %-14s tracker %9.1f ns/update, full scan %9.1f ns/update (%.1fx), %.0f chunks/update%n",
+                r, name, (double) trackerNanos / ITERATIONS, (double) fullScanNanos / ITERATIONS,
+                (double) fullScanNanos / trackerNanos, (double) chunks / ITERATIONS);
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static int runTracker(VisibleChunksTracker tracker, int[] target, LongArrayList unloaded, LongArrayList loaded) {
+        tracker.updateAndCollect(target[0], target[1], target[2], unloaded, loaded);
+        int changed = unloaded.size() + loaded.size();
+        unloaded.clear();
+        loaded.clear();
+        return changed;
+    }
+
+    private static int runFullScan(FullScan fullScan, int[] target, LongArrayList unloaded, LongArrayList loaded) {
+        fullScan.updateAndCollect(target[0], target[1], target[2], unloaded, loaded);
+        int changed = unloaded.size() + loaded.size();
+        unloaded.clear();
+        loaded.clear();
+        return changed;
+    }
+
+    private static void verify(Move move, int r) {
+        VisibleChunksTracker tracker = new VisibleChunksTracker();
+        FullScan fullScan = new FullScan();
+        for (int i = 0; i < 100; i++) {
+            int[] target = move.at(i, r);
+            LongArrayList trackerUnloaded = new LongArrayList();
+            LongArrayList trackerLoaded = new LongArrayList();
+            LongArrayList fullScanUnloaded = new LongArrayList();
+            LongArrayList fullScanLoaded = new LongArrayList();
+            tracker.updateAndCollect(target[0], target[1], target[2], trackerUnloaded, trackerLoaded);
+            fullScan.updateAndCollect(target[0], target[1], target[2], fullScanUnloaded, fullScanLoaded);
+            if (!new LongOpenHashSet(trackerUnloaded).equals(new LongOpenHashSet(fullScanUnloaded))
+                    || !new LongOpenHashSet(trackerLoaded).equals(new LongOpenHashSet(fullScanLoaded))) {
+                throw new AssertionError("Tracker and full scan disagree at step " + i + " with r=" + r);
+            }
+        }
+    }
+
+    /**
+     * The previous implementation: visits every chunk of the old and the new square.
+     */
+    private static class FullScan {
+        private int centerX, centerZ, viewDistance;
+
+        void updateAndCollect(int newCenterX, int newCenterZ, int newViewDistance, LongArrayList unloaded, LongArrayList loaded) {
+            int oldCenterX = this.centerX;
+            int oldCenterZ = this.centerZ;
+            int oldViewDistance = this.viewDistance;
+            if (oldCenterX != newCenterX || oldCenterZ != newCenterZ || oldViewDistance != newViewDistance) {
+                for (int x = oldCenterX - oldViewDistance; x <= oldCenterX + oldViewDistance; x++) {
+                    boolean xOutsideNew = x < newCenterX - newViewDistance || x > newCenterX + newViewDistance;
+                    for (int z = oldCenterZ - oldViewDistance; z <= oldCenterZ + oldViewDistance; z++) {
+                        boolean zOutsideNew = z < newCenterZ - newViewDistance || z > newCenterZ + newViewDistance;
+                        if (xOutsideNew || zOutsideNew) {
+                            unloaded.add(ChunkPos.toLong(x, z));
+                        }
+                    }
+                }
+
+                for (int x = newCenterX - newViewDistance; x <= newCenterX + newViewDistance; x++) {
+                    boolean xOutsideOld = x < oldCenterX - oldViewDistance || x > oldCenterX + oldViewDistance;
+                    for (int z = newCenterZ - newViewDistance; z <= newCenterZ + newViewDistance; z++) {
+                        boolean zOutsideOld = z < oldCenterZ - oldViewDistance || z > oldCenterZ + oldViewDistance;
+                        if (xOutsideOld || zOutsideOld) {
+                            loaded.add(ChunkPos.toLong(x, z));
+                        }
+                    }
+                }
+
+                this.centerX = newCenterX;
+                this.centerZ = newCenterZ;
+                this.viewDistance = newViewDistance;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package de.johni0702.minecraft.bobby.util;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+
+/**
+ * Compares read throughput of {@link SingleWriterLong2ObjectMap} with the synchronized map it replaced for the fake
+ * chunk lookups, under contention from multiple reading threads (think chunk builders) and one writing thread (the
+ * main thread moving the view distance around).
+ *
+ * Run via its main method, there are no arguments.
+ */
+public class FakeChunkMapBenchmark {
+    private static final int VIEW_DISTANCE = 32;
+    private static final int SIZE = VIEW_DISTANCE * 2 + 1;
+    private static final long MEASURE_MILLIS = 2000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int readers = 1; readers <= maxThreads; readers *= 2) {
+            Long2ObjectMap<Object> synchronizedMap = Long2ObjectMaps.synchronize(new Long2ObjectOpenHashMap<>());
+            double synchronizedReads = run(readers, synchronizedMap::get, synchronizedMap::put, synchronizedMap::remove);
+
+            SingleWriterLong2ObjectMap<Object> singleWriterMap = new SingleWriterLong2ObjectMap<>();
+            double singleWriterReads = run(readers, singleWriterMap::get, singleWriterMap::put, singleWriterMap::remove);
+
+            System.out.printf("%2d readers: synchronized %7.1f M reads/s, single writer %7.1f M reads/s (%.1fx)%n",
+                    readers, synchronizedReads / 1e6, singleWriterReads / 1e6, singleWriterReads / synchronizedReads);
+        }
+    }
+
+    private interface Put {
+        void put(long key, Object value);
+    }
+
+    private interface Remove {
+        void remove(long key);
+    }
+
+    /**
+     * @return reads per second across all reader threads
+     */
+    private static double run(int readers, LongFunction<Object> get, Put put, Remove remove) throws InterruptedException {
+        Object chunk = new Object();
+        for (int x = 0; x < SIZE; x++) {
+            for (int z = 0; z < SIZE; z++) {
+                put.put(ChunkPos.toLong(x, z), chunk);
+            }
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder reads = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long found = 0;
+                while (running.get()) {
+                    for (int j = 0; j < 1024; j++) {
+                        // Lookups hit somewhere around the current area, like a chunk builder's would
+                        if (get.apply(ChunkPos.toLong(random.nextInt(SIZE * 2), random.nextInt(SIZE))) != null) {
+                            found++;
+                        }
+                    }
+                    reads.add(1024);
+                }
+                if (found < 0) {
+                    throw new AssertionError();
+                }
+            });
+            threads.add(thread);
+        }
+
+        // The writer walks along the x axis, unloading the column behind it and loading the one in front
+        Thread writer = new Thread(() -> {
+            int offset = 0;
+            while (running.get()) {
+                for (int z = 0; z < SIZE; z++) {
+                    remove.remove(ChunkPos.toLong(offset, z));
+                    put.put(ChunkPos.toLong(offset + SIZE, z), chunk);
+                }
+                offset++;
+                if (offset == SIZE) {
+                    // Walk back to where we started, so the readers keep hitting
+                    for (int x = 0; x < SIZE; x++) {
+                        for (int z = 0; z < SIZE; z++) {
+                            remove.remove(ChunkPos.toLong(x + SIZE, z));
+                            put.put(ChunkPos.toLong(x, z), chunk);
+                        }
+                    }
+                    offset = 0;
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        // Warm up, then measure
+        threads.forEach(Thread::start);
+        writer.start();
+        Thread.sleep(MEASURE_MILLIS / 2);
+        reads.reset();
+        long start = System.nanoTime();
+        Thread.sleep(MEASURE_MILLIS);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - start;
+        writer.join();
+        return reads.sum() / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,67 @@
+package de.johni0702.minecraft.bobby.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Measures how many bytes {@link UnloadQueue} allocates per operation, once it has grown to its working size.
+ *
+ * Simulates what the unload path does when turning around at high view distance: a whole ring of chunks is queued,
+ * some of them come back into view (and are removed) before they are due, and the rest are drained from the head.
+ *
+ * Run via its main method, there are no arguments.
+ */
+public class UnloadQueueBenchmark {
+    private static final int CHUNKS_PER_ROUND = 64 * 1024;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        UnloadQueue queue = new UnloadQueue();
+        long[] positions = new long[CHUNKS_PER_ROUND];
+        Random random = new Random(0);
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = random.nextLong();
+        }
+
+        long time = 0;
+        long sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            time = runRound(queue, positions, time);
+        }
+
+        long operations = 0;
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long nanosBefore = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            time = runRound(queue, positions, time);
+            operations += CHUNKS_PER_ROUND * 2L;
+        }
+        long nanos = System.nanoTime() - nanosBefore;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        sink += queue.size();
+
+        System.out.printf("%d operations (add + remove/removeFirst), %.1f ns/op, %d bytes allocated (%.4f bytes/op)%n",
+                operations, (double) nanos / operations, allocated, (double) allocated / operations);
+        if (sink != 0) {
+            throw new IllegalStateException("Queue should be empty");
+        }
+    }
+
+    private static long runRound(UnloadQueue queue, long[] positions, long time) {
+        for (long pos : positions) {
+            queue.add(pos, time++);
+        }
+        // Every fourth chunk comes back into view before it is unloaded
+        for (int i = 0; i < positions.length; i += 4) {
+            queue.remove(positions[i]);
+        }
+        while (queue.firstTime() != Long.MAX_VALUE) {
+            queue.removeFirst();
+        }
+        return time;
+    }
+}